@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.github.clickhouse.bridge.core.ClickHouseDataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Throughput of datasource lookups, with and without a thread continuously
+ * reloading configuration in the background. Use {@code -tg <lookup>,1} to
+ * simulate more concurrent requests, for example {@code -tg 2000,1}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClickHouseDataSourceManagerBenchmark {
+    @State(Scope.Group)
+    public static class Registry {
+        @Param({ "100" })
+        int datasources;
+
+        ClickHouseDataSourceManager manager;
+        String[] ids;
+        JsonObject config;
+
+        // number of reloads so far, only accessed by the reloading thread
+        long version;
+
+        @Setup
+        public void setup() {
+            this.manager = new ClickHouseDataSourceManager();
+            this.ids = new String[this.datasources];
+            this.config = new JsonObject();
+            for (int i = 0; i < this.datasources; i++) {
+                this.ids[i] = "ds" + i;
+                this.config.put(this.ids[i], new JsonObject().put("version", 0L));
+            }
+
+            this.manager.reload(this.config);
+        }
+    }
+
+    static ClickHouseDataSource randomLookup(Registry r) {
+        return r.manager.get(r.ids[ThreadLocalRandom.current().nextInt(r.ids.length)], false);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public ClickHouseDataSource lookupOnly(Registry r) {
+        return randomLookup(r);
+    }
+
+    @Benchmark
+    @Group("reloading")
+    @GroupThreads(15)
+    public ClickHouseDataSource lookup(Registry r) {
+        return randomLookup(r);
+    }
+
+    @Benchmark
+    @Group("reloading")
+    @GroupThreads(1)
+    public void reload(Registry r) {
+        // change one datasource at a time, so that it's replaced on every reload
+        long version = ++r.version;
+        r.config.put(r.ids[(int) (version % r.ids.length)], new JsonObject().put("version", version));
+
+        r.manager.reload(r.config);
+    }
+
+    /**
+     * Entry point for running benchmarks of this class only from IDE.
+     *
+     * @param args command line arguments
+     * @throws Exception when failed to run benchmarks
+     */
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[] { ClickHouseDataSourceManagerBenchmark.class.getSimpleName() });
+    }
+}
@@ -0,0 +1,558 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Cost of encoding and decoding one cell of each data type, plus encoding of
+ * wide rows. All numbers are per cell(or per row for wide row benchmarks).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClickHouseBufferBenchmark {
+    static final int CELLS = 1024;
+    static final int WIDE_ROWS = 64;
+
+    @State(Scope.Thread)
+    public static class TypedCells {
+        @Param({ "Int8", "Int16", "Int32", "Int64", "UInt8", "UInt16", "UInt32", "UInt64", "Float32", "Float64",
+                "Date", "DateTime", "DateTime64", "Decimal", "Decimal32", "Decimal64", "Decimal128", "String" })
+        ClickHouseDataType type;
+
+        TimeZone timezone;
+        ClickHouseColumnInfo column;
+
+        long[] longs;
+        double[] doubles;
+        Timestamp[] timestamps;
+        BigDecimal[] decimals;
+        String[] strings;
+
+        Buffer encoded;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(CELLS);
+
+            this.timezone = TimeZone.getDefault();
+            this.column = newColumn("c", this.type, false);
+
+            this.longs = new long[CELLS];
+            this.doubles = new double[CELLS];
+            this.timestamps = new Timestamp[CELLS];
+            this.decimals = new BigDecimal[CELLS];
+            this.strings = new String[CELLS];
+
+            ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(CELLS * 16, this.timezone);
+            for (int i = 0; i < CELLS; i++) {
+                Object value = newValue(random, this.column);
+                encode(buffer, this.column, value);
+
+                if (value instanceof Number) {
+                    this.longs[i] = ((Number) value).longValue();
+                    this.doubles[i] = ((Number) value).doubleValue();
+                } else if (value instanceof Timestamp) {
+                    this.timestamps[i] = (Timestamp) value;
+                } else if (value instanceof String) {
+                    this.strings[i] = (String) value;
+                }
+
+                if (value instanceof BigDecimal) {
+                    this.decimals[i] = (BigDecimal) value;
+                }
+            }
+            this.encoded = buffer.unwrap();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class UnicodeStrings {
+        TimeZone timezone;
+        String[] strings;
+        Buffer encoded;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(CELLS);
+
+            this.timezone = TimeZone.getDefault();
+            this.strings = new String[CELLS];
+
+            ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(CELLS * 64, this.timezone);
+            for (int i = 0; i < CELLS; i++) {
+                buffer.writeString(this.strings[i] = newString(random, 1 + random.nextInt(32), true));
+            }
+            this.encoded = buffer.unwrap();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class WideRows {
+        @Param({ "100" })
+        int columns;
+
+        TimeZone timezone;
+        ClickHouseColumnInfo[] cols;
+        Object[] row;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(CELLS);
+
+            this.timezone = TimeZone.getDefault();
+
+            // a wide row consists of all data types, half of them are nullable
+            ClickHouseDataType[] types = ClickHouseDataType.values();
+            this.cols = new ClickHouseColumnInfo[this.columns];
+            this.row = new Object[this.columns];
+            for (int i = 0; i < this.columns; i++) {
+                ClickHouseColumnInfo c = newColumn("c" + i, types[i % types.length], i % 2 == 0);
+                this.cols[i] = c;
+                this.row[i] = c.isNullable() && i % 10 == 0 ? null : newValue(random, c);
+            }
+        }
+    }
+
+    public static ClickHouseColumnInfo newColumn(String name, ClickHouseDataType type, boolean nullable) {
+        int precision = ClickHouseDataType.DEFAULT_PRECISION;
+        int scale = ClickHouseDataType.DEFAULT_SCALE;
+
+        switch (type) {
+            case DateTime64:
+                scale = ClickHouseDataType.DEFAULT_DATETIME64_SCALE;
+                break;
+            case Decimal:
+                precision = ClickHouseDataType.DEFAULT_DECIMAL_PRECISON;
+                scale = ClickHouseDataType.DEFAULT_DECIMAL_SCALE;
+                break;
+            case Decimal32:
+                precision = ClickHouseDataType.DEFAULT_DECIMAL32_PRECISON;
+                scale = ClickHouseDataType.DEFAULT_DECIMAL32_SCALE;
+                break;
+            case Decimal64:
+                precision = ClickHouseDataType.DEFAULT_DECIMAL64_PRECISON;
+                scale = ClickHouseDataType.DEFAULT_DECIMAL64_SCALE;
+                break;
+            case Decimal128:
+                precision = ClickHouseDataType.DEFAULT_DECIMAL128_PRECISON;
+                scale = ClickHouseDataType.DEFAULT_DECIMAL128_SCALE;
+                break;
+            default:
+                break;
+        }
+
+        return new ClickHouseColumnInfo(name, type, nullable, precision, scale);
+    }
+
+    static String newString(Random random, int length, boolean unicode) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(unicode && i % 2 == 0 ? (char) (0x4e00 + random.nextInt(0x5000))
+                    : (char) ('a' + random.nextInt(26)));
+        }
+
+        return sb.toString();
+    }
+
+    public static Object newValue(Random random, ClickHouseColumnInfo column) {
+        final Object value;
+
+        switch (column.getType()) {
+            case Int8:
+                value = (byte) random.nextInt();
+                break;
+            case Int16:
+                value = (short) random.nextInt();
+                break;
+            case Int32:
+                value = random.nextInt();
+                break;
+            case Int64:
+                value = random.nextLong();
+                break;
+            case UInt8:
+                value = random.nextInt(0xFF);
+                break;
+            case UInt16:
+                value = random.nextInt(0xFFFF);
+                break;
+            case UInt32:
+                value = (long) random.nextInt(Integer.MAX_VALUE);
+                break;
+            case UInt64:
+                value = random.nextLong() & Long.MAX_VALUE;
+                break;
+            case Float32:
+                value = random.nextFloat();
+                break;
+            case Float64:
+                value = random.nextDouble();
+                break;
+            case Date:
+            case DateTime:
+            case DateTime64:
+                // between 1970 and 2100
+                value = new Timestamp((long) (random.nextDouble() * 4102444800000L));
+                break;
+            case Decimal:
+            case Decimal32:
+            case Decimal64:
+            case Decimal128:
+                int digits = Math.min(column.getPrecision(), 18) - column.getScale();
+                value = BigDecimal.valueOf(random.nextInt((int) Math.pow(10, Math.min(digits, 9))), 0)
+                        .add(BigDecimal.valueOf(random.nextInt(100), 2)).setScale(column.getScale());
+                break;
+            case String:
+            default:
+                value = newString(random, 1 + random.nextInt(32), false);
+                break;
+        }
+
+        return value;
+    }
+
+    static void encode(ClickHouseBuffer buffer, ClickHouseColumnInfo column, Object value) {
+        switch (column.getType()) {
+            case Int8:
+                buffer.writeInt8((Byte) value);
+                break;
+            case Int16:
+                buffer.writeInt16((Short) value);
+                break;
+            case Int32:
+                buffer.writeInt32((Integer) value);
+                break;
+            case Int64:
+                buffer.writeInt64((Long) value);
+                break;
+            case UInt8:
+                buffer.writeUInt8((Integer) value);
+                break;
+            case UInt16:
+                buffer.writeUInt16((Integer) value);
+                break;
+            case UInt32:
+                buffer.writeUInt32((Long) value);
+                break;
+            case UInt64:
+                buffer.writeUInt64((Long) value);
+                break;
+            case Float32:
+                buffer.writeFloat32((Float) value);
+                break;
+            case Float64:
+                buffer.writeFloat64((Double) value);
+                break;
+            case Date:
+                buffer.writeDate((Timestamp) value);
+                break;
+            case DateTime:
+                buffer.writeDateTime((Timestamp) value, column.getTimeZone());
+                break;
+            case DateTime64:
+                buffer.writeDateTime64((Timestamp) value, column.getTimeZone());
+                break;
+            case Decimal:
+                buffer.writeDecimal((BigDecimal) value, column.getPrecision(), column.getScale());
+                break;
+            case Decimal32:
+                buffer.writeDecimal32((BigDecimal) value, column.getScale());
+                break;
+            case Decimal64:
+                buffer.writeDecimal64((BigDecimal) value, column.getScale());
+                break;
+            case Decimal128:
+                buffer.writeDecimal128((BigDecimal) value, column.getScale());
+                break;
+            case String:
+                buffer.writeString((String) value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    static Object decode(ClickHouseBuffer buffer, ClickHouseColumnInfo column) {
+        final Object value;
+
+        switch (column.getType()) {
+            case Int8:
+                value = buffer.readInt8();
+                break;
+            case Int16:
+                value = buffer.readInt16();
+                break;
+            case Int32:
+                value = buffer.readInt32();
+                break;
+            case Int64:
+                value = buffer.readInt64();
+                break;
+            case UInt8:
+                value = buffer.readUInt8();
+                break;
+            case UInt16:
+                value = buffer.readUInt16();
+                break;
+            case UInt32:
+                value = buffer.readUInt32();
+                break;
+            case UInt64:
+                value = buffer.readUInt64();
+                break;
+            case Float32:
+                value = buffer.readFloat32();
+                break;
+            case Float64:
+                value = buffer.readFloat64();
+                break;
+            case Date:
+                value = buffer.readDate();
+                break;
+            case DateTime:
+                value = buffer.readDateTime(column.getTimeZone());
+                break;
+            case DateTime64:
+                value = buffer.readDateTime64(column.getTimeZone());
+                break;
+            case Decimal:
+                value = buffer.readDecimal(column.getPrecision(), column.getScale());
+                break;
+            case Decimal32:
+                value = buffer.readDecimal32(column.getScale());
+                break;
+            case Decimal64:
+                value = buffer.readDecimal64(column.getScale());
+                break;
+            case Decimal128:
+                value = buffer.readDecimal128(column.getScale());
+                break;
+            case String:
+                value = buffer.readString();
+                break;
+            default:
+                value = null;
+                break;
+        }
+
+        return value;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CELLS)
+    public ClickHouseBuffer encode(TypedCells s) {
+        ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(CELLS * 16, s.timezone);
+        ClickHouseColumnInfo c = s.column;
+
+        switch (s.type) {
+            case Int8:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeInt8((byte) s.longs[i]);
+                }
+                break;
+            case Int16:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeInt16((short) s.longs[i]);
+                }
+                break;
+            case Int32:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeInt32((int) s.longs[i]);
+                }
+                break;
+            case Int64:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeInt64(s.longs[i]);
+                }
+                break;
+            case UInt8:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeUInt8((int) s.longs[i]);
+                }
+                break;
+            case UInt16:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeUInt16((int) s.longs[i]);
+                }
+                break;
+            case UInt32:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeUInt32(s.longs[i]);
+                }
+                break;
+            case UInt64:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeUInt64(s.longs[i]);
+                }
+                break;
+            case Float32:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeFloat32((float) s.doubles[i]);
+                }
+                break;
+            case Float64:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeFloat64(s.doubles[i]);
+                }
+                break;
+            case Date:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeDate(s.timestamps[i]);
+                }
+                break;
+            case DateTime:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeDateTime(s.timestamps[i], c.getTimeZone());
+                }
+                break;
+            case DateTime64:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeDateTime64(s.timestamps[i], c.getTimeZone());
+                }
+                break;
+            case Decimal:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeDecimal(s.decimals[i], c.getPrecision(), c.getScale());
+                }
+                break;
+            case Decimal32:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeDecimal32(s.decimals[i], c.getScale());
+                }
+                break;
+            case Decimal64:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeDecimal64(s.decimals[i], c.getScale());
+                }
+                break;
+            case Decimal128:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeDecimal128(s.decimals[i], c.getScale());
+                }
+                break;
+            case String:
+                for (int i = 0; i < CELLS; i++) {
+                    buffer.writeString(s.strings[i]);
+                }
+                break;
+            default:
+                break;
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CELLS)
+    public void decode(TypedCells s, Blackhole bh) {
+        ClickHouseBuffer buffer = ClickHouseBuffer.wrap(s.encoded, s.timezone);
+        ClickHouseColumnInfo c = s.column;
+
+        for (int i = 0; i < CELLS; i++) {
+            bh.consume(decode(buffer, c));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CELLS)
+    public ClickHouseBuffer encodeUnicodeString(UnicodeStrings s) {
+        ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(CELLS * 64, s.timezone);
+
+        for (int i = 0; i < CELLS; i++) {
+            buffer.writeString(s.strings[i]);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CELLS)
+    public void decodeUnicodeString(UnicodeStrings s, Blackhole bh) {
+        ClickHouseBuffer buffer = ClickHouseBuffer.wrap(s.encoded, s.timezone);
+
+        for (int i = 0; i < CELLS; i++) {
+            bh.consume(buffer.readString());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(WIDE_ROWS)
+    public ClickHouseBuffer encodeWideRows(WideRows s) {
+        ClickHouseColumnInfo[] cols = s.cols;
+        Object[] row = s.row;
+        ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(WIDE_ROWS * cols.length * 16, s.timezone);
+
+        for (int r = 0; r < WIDE_ROWS; r++) {
+            for (int i = 0; i < cols.length; i++) {
+                ClickHouseColumnInfo c = cols[i];
+                Object value = row[i];
+
+                if (c.isNullable()) {
+                    if (value == null) {
+                        buffer.writeNull();
+                        continue;
+                    }
+
+                    buffer.writeNonNull();
+                }
+
+                encode(buffer, c, value);
+            }
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Entry point for running benchmarks of this class only from IDE.
+     *
+     * @param args command line arguments
+     * @throws Exception when failed to run benchmarks
+     */
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[] { ClickHouseBufferBenchmark.class.getSimpleName() });
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * CPU cost versus bytes saved of compressing query result. Each operation
+ * compresses one block of wide rows, and the {@code inputBytes} and
+ * {@code outputBytes} counters show bytes per second before and after
+ * compression.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClickHouseCompressorBenchmark {
+    @State(Scope.Thread)
+    public static class Block {
+        @Param({ "gzip", "deflate" })
+        String encoding;
+
+        @Param({ "1", "6" })
+        int level;
+
+        Buffer block;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(StreamOptions.DEFAULT_BLOCK_BYTES);
+
+            // same wide rows as in ClickHouseBufferBenchmark, until the block is full
+            ClickHouseDataType[] types = ClickHouseDataType.values();
+            ClickHouseColumnInfo[] cols = new ClickHouseColumnInfo[100];
+            for (int i = 0; i < cols.length; i++) {
+                cols[i] = ClickHouseBufferBenchmark.newColumn("c" + i, types[i % types.length], i % 2 == 0);
+            }
+
+            ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(StreamOptions.DEFAULT_BLOCK_BYTES,
+                    TimeZone.getDefault());
+            for (int r = 0; buffer.length() < StreamOptions.DEFAULT_BLOCK_BYTES; r++) {
+                for (int i = 0; i < cols.length; i++) {
+                    ClickHouseColumnInfo c = cols[i];
+                    if (c.isNullable()) {
+                        if ((r + i) % 10 == 0) {
+                            buffer.writeNull();
+                            continue;
+                        }
+
+                        buffer.writeNonNull();
+                    }
+
+                    ClickHouseBufferBenchmark.encode(buffer, c, ClickHouseBufferBenchmark.newValue(random, c));
+                }
+            }
+            this.block = buffer.unwrap();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long inputBytes;
+        public long outputBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            this.inputBytes = 0L;
+            this.outputBytes = 0L;
+        }
+    }
+
+    @Benchmark
+    public Buffer compress(Block s, Bytes bytes) {
+        ClickHouseCompressor compressor = new ClickHouseCompressor(s.encoding, s.level);
+        Buffer compressed = compressor.compress(s.block);
+        Buffer trailer = compressor.finish();
+
+        bytes.inputBytes += s.block.length();
+        bytes.outputBytes += compressed.length() + trailer.length();
+        return compressed;
+    }
+
+    /**
+     * Entry point for running benchmarks of this class only from IDE.
+     *
+     * @param args command line arguments
+     * @throws Exception when failed to run benchmarks
+     */
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[] { ClickHouseCompressorBenchmark.class.getSimpleName() });
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.jdbc;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import com.github.clickhouse.bridge.core.ClickHouseBlockWriter;
+import com.github.clickhouse.bridge.core.ClickHouseBufferBenchmark;
+import com.github.clickhouse.bridge.core.ClickHouseColumnInfo;
+import com.github.clickhouse.bridge.core.ClickHouseDataType;
+import com.github.clickhouse.bridge.core.DefaultValues;
+import com.github.clickhouse.bridge.core.QueryParameters;
+import com.github.clickhouse.bridge.core.StreamOptions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.vertx.core.MultiMap;
+
+/**
+ * Throughput, in rows per second, of encoding wide numeric rows into blocks in
+ * RowBinary and Native format. Like {@link ClickHouseRowCodecBenchmark}, rows
+ * are served by an in-memory {@link CachedRowSet}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClickHouseNativeFormatBenchmark {
+    static final int ROWS = 1024;
+
+    static final ClickHouseDataType[] NUMERIC_TYPES = new ClickHouseDataType[] { ClickHouseDataType.Int8,
+            ClickHouseDataType.Int16, ClickHouseDataType.Int32, ClickHouseDataType.Int64, ClickHouseDataType.Float32,
+            ClickHouseDataType.Float64 };
+
+    @State(Scope.Thread)
+    public static class WideNumericTable {
+        @Param({ "100" })
+        int columns;
+
+        @Param({ StreamOptions.FORMAT_ROW_BINARY, StreamOptions.FORMAT_NATIVE })
+        String format;
+
+        TimeZone timezone;
+        StreamOptions options;
+        ClickHouseColumnInfo[] cols;
+        ClickHouseRowCodec codec;
+
+        CachedRowSet rs;
+
+        @Setup
+        public void setup() throws SQLException {
+            Random random = new Random(ROWS);
+
+            this.timezone = TimeZone.getDefault();
+            this.options = new StreamOptions(MultiMap.caseInsensitiveMultiMap().add("output_format", this.format)
+                    .add("max_block_size", String.valueOf(ROWS)));
+
+            // one out of four columns is nullable
+            this.cols = new ClickHouseColumnInfo[this.columns];
+            RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+            meta.setColumnCount(this.columns);
+            for (int i = 0; i < this.columns; i++) {
+                ClickHouseColumnInfo c = ClickHouseBufferBenchmark.newColumn("c" + i,
+                        NUMERIC_TYPES[i % NUMERIC_TYPES.length], i % 4 == 0);
+                this.cols[i] = c;
+
+                meta.setColumnName(i + 1, c.getName());
+                meta.setColumnType(i + 1, ClickHouseRowCodecBenchmark.getSqlType(c.getType()));
+                meta.setNullable(i + 1, ResultSetMetaData.columnNullable);
+            }
+
+            this.rs = RowSetProvider.newFactory().createCachedRowSet();
+            this.rs.setMetaData(meta);
+            this.rs.moveToInsertRow();
+            for (int r = 0; r < ROWS; r++) {
+                for (int i = 0; i < this.columns; i++) {
+                    ClickHouseColumnInfo c = this.cols[i];
+                    if (c.isNullable() && (r + i) % 10 == 0) {
+                        this.rs.updateNull(i + 1);
+                    } else {
+                        this.rs.updateObject(i + 1, ClickHouseBufferBenchmark.newValue(random, c));
+                    }
+                }
+                this.rs.insertRow();
+            }
+            this.rs.moveToCurrentRow();
+
+            this.codec = ClickHouseRowCodec.forQuery(null, this.cols, new QueryParameters(), new DefaultValues(), 0);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void encode(WideNumericTable s, Blackhole bh) throws SQLException {
+        ClickHouseRowCodec codec = s.codec;
+        ClickHouseBlockWriter block = new ClickHouseBlockWriter(s.options, s.timezone, s.cols, bh::consume);
+
+        s.rs.beforeFirst();
+        while (s.rs.next()) {
+            codec.encode(s.rs, block);
+            block.endRow();
+        }
+
+        block.flush();
+    }
+
+    /**
+     * Entry point for running benchmarks of this class only from IDE.
+     *
+     * @param args command line arguments
+     * @throws Exception when failed to run benchmarks
+     */
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[] { ClickHouseNativeFormatBenchmark.class.getSimpleName() });
+    }
+}
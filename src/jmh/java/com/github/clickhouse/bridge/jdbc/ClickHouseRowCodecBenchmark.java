@@ -0,0 +1,213 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.jdbc;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
+
+import com.github.clickhouse.bridge.core.ClickHouseBuffer;
+import com.github.clickhouse.bridge.core.ClickHouseBufferBenchmark;
+import com.github.clickhouse.bridge.core.ClickHouseColumnInfo;
+import com.github.clickhouse.bridge.core.ClickHouseDataType;
+import com.github.clickhouse.bridge.core.DefaultValues;
+import com.github.clickhouse.bridge.core.QueryParameters;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Throughput, in rows per second, of converting wide rows with a compiled row
+ * codec. Query result is served by an in-memory {@link CachedRowSet}, so the
+ * numbers include its overhead but nothing from a real driver.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClickHouseRowCodecBenchmark {
+    static final int ROWS = 256;
+
+    @State(Scope.Thread)
+    public static class WideTable {
+        @Param({ "100" })
+        int columns;
+
+        TimeZone timezone;
+        ClickHouseColumnInfo[] cols;
+        ClickHouseRowCodec queryCodec;
+        ClickHouseRowCodec mutationCodec;
+
+        CachedRowSet rs;
+        Buffer encoded;
+
+        @Setup
+        public void setup() throws SQLException {
+            Random random = new Random(ROWS);
+
+            this.timezone = TimeZone.getDefault();
+
+            // all data types, half of the columns are nullable
+            ClickHouseDataType[] types = ClickHouseDataType.values();
+            this.cols = new ClickHouseColumnInfo[this.columns];
+            RowSetMetaDataImpl meta = new RowSetMetaDataImpl();
+            meta.setColumnCount(this.columns);
+            for (int i = 0; i < this.columns; i++) {
+                ClickHouseColumnInfo c = ClickHouseBufferBenchmark.newColumn("c" + i, types[i % types.length],
+                        i % 2 == 0);
+                this.cols[i] = c;
+
+                meta.setColumnName(i + 1, c.getName());
+                meta.setColumnType(i + 1, getSqlType(c.getType()));
+                meta.setNullable(i + 1, ResultSetMetaData.columnNullable);
+            }
+
+            this.rs = RowSetProvider.newFactory().createCachedRowSet();
+            this.rs.setMetaData(meta);
+            this.rs.moveToInsertRow();
+            for (int r = 0; r < ROWS; r++) {
+                for (int i = 0; i < this.columns; i++) {
+                    ClickHouseColumnInfo c = this.cols[i];
+                    if (c.isNullable() && (r + i) % 10 == 0) {
+                        this.rs.updateNull(i + 1);
+                    } else {
+                        this.rs.updateObject(i + 1, ClickHouseBufferBenchmark.newValue(random, c));
+                    }
+                }
+                this.rs.insertRow();
+            }
+            this.rs.moveToCurrentRow();
+
+            this.queryCodec = ClickHouseRowCodec.forQuery(null, this.cols, new QueryParameters(),
+                    new DefaultValues(), 0);
+            this.mutationCodec = ClickHouseRowCodec.forMutation(this.cols);
+
+            ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(ROWS * this.columns * 16, this.timezone);
+            this.rs.beforeFirst();
+            while (this.rs.next()) {
+                this.queryCodec.encode(this.rs, buffer);
+            }
+            this.encoded = buffer.unwrap();
+        }
+    }
+
+    static int getSqlType(ClickHouseDataType type) {
+        final int sqlType;
+
+        switch (type) {
+            case Int8:
+                sqlType = Types.TINYINT;
+                break;
+            case Int16:
+                sqlType = Types.SMALLINT;
+                break;
+            case Int32:
+            case UInt8:
+            case UInt16:
+                sqlType = Types.INTEGER;
+                break;
+            case Int64:
+            case UInt32:
+            case UInt64:
+                sqlType = Types.BIGINT;
+                break;
+            case Float32:
+                sqlType = Types.REAL;
+                break;
+            case Float64:
+                sqlType = Types.DOUBLE;
+                break;
+            case Date:
+            case DateTime:
+            case DateTime64:
+                sqlType = Types.TIMESTAMP;
+                break;
+            case Decimal:
+            case Decimal32:
+            case Decimal64:
+            case Decimal128:
+                sqlType = Types.DECIMAL;
+                break;
+            case String:
+            default:
+                sqlType = Types.VARCHAR;
+                break;
+        }
+
+        return sqlType;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public ClickHouseBuffer encode(WideTable s) throws SQLException {
+        ClickHouseRowCodec codec = s.queryCodec;
+        ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(ROWS * s.columns * 16, s.timezone);
+
+        s.rs.beforeFirst();
+        while (s.rs.next()) {
+            codec.encode(s.rs, buffer);
+        }
+
+        return buffer;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void decode(WideTable s, Blackhole bh) {
+        ClickHouseRowCodec codec = s.mutationCodec;
+        ClickHouseBuffer buffer = ClickHouseBuffer.wrap(s.encoded, s.timezone);
+
+        for (int i = 0; i < ROWS; i++) {
+            bh.consume(codec.decode(buffer));
+        }
+    }
+
+    /**
+     * Entry point for running benchmarks of this class only from IDE.
+     *
+     * @param args command line arguments
+     * @throws Exception when failed to run benchmarks
+     */
+    public static void main(String[] args) throws Exception {
+        org.openjdk.jmh.Main.main(new String[] { ClickHouseRowCodecBenchmark.class.getSimpleName() });
+    }
+}
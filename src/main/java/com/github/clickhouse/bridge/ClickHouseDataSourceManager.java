@@ -22,18 +22,27 @@ package com.github.clickhouse.bridge;
 
 import java.lang.reflect.Constructor;
 import java.net.URI;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.clickhouse.bridge.core.ClickHouseDataSource;
 import com.github.clickhouse.bridge.core.ClickHouseUtils;
+import com.github.clickhouse.bridge.core.DataSourceMetrics;
 import com.github.clickhouse.bridge.core.DnsResolver;
 import com.github.clickhouse.bridge.core.IDataSourceResolver;
 import com.github.clickhouse.bridge.jdbc.ClickHouseJdbcDataSource;
 
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import io.vertx.core.json.JsonObject;
 
 public class ClickHouseDataSourceManager implements IDataSourceResolver {
@@ -41,13 +50,39 @@ public class ClickHouseDataSourceManager implements IDataSourceResolver {
 
     private static final String CONF_JDBC_URL = "jdbcUrl";
 
+    private static final String CONF_SIZE = "size";
+    private static final String CONF_EXPIRATION = "expiration";
+
+    public static final long DEFAULT_DRAIN_TIMEOUT = 60000L;
+
+    public static final int DEFAULT_ADHOC_CACHE_SIZE = 100;
+    public static final int DEFAULT_ADHOC_CACHE_EXPIRATION = 10;
+
+    private static final String ADHOC_CACHE_NAME = "datasource.adhoc";
+
     private final Map<String, Constructor<ClickHouseDataSource>> types = new HashMap<>();
-    private final Map<String, ClickHouseDataSource> mappings = new HashMap<>();
+    // immutable snapshot, which is replaced as a whole on reload so that lookups
+    // are lock-free and never see a half-updated map
+    private volatile Map<String, ClickHouseDataSource> mappings = Collections.emptyMap();
 
     private final DnsResolver resolver = new DnsResolver();
 
+    // closes retired datasources which are still in use after drain timeout
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "datasource-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long drainTimeout = DEFAULT_DRAIN_TIMEOUT;
+
+    // ad-hoc datasources(and their connection pools) keyed by connection string
+    private volatile Cache<String, ClickHouseDataSource> adhocDataSources;
+
     protected ClickHouseDataSourceManager() {
         this.registerType(ClickHouseJdbcDataSource.DATASOURCE_TYPE, ClickHouseJdbcDataSource.class.getName());
+
+        this.configureAdhocDataSources(null);
     }
 
     protected void registerType(String typeName, String className) {
@@ -109,27 +144,112 @@ public class ClickHouseDataSourceManager implements IDataSourceResolver {
         return ds;
     }
 
+    /**
+     * Set maximum time, in milliseconds, to wait for retired datasource to
+     * complete ongoing requests before closing it.
+     *
+     * @param drainTimeout drain timeout in milliseconds
+     */
+    public void setDrainTimeout(long drainTimeout) {
+        this.drainTimeout = drainTimeout;
+    }
+
+    /**
+     * Configure cache of ad-hoc datasources. Existing ad-hoc datasources will be
+     * removed.
+     *
+     * @param config cache configuration, for example:
+     *               {@code {"size": 100, "expiration": 10}}, in which expiration
+     *               is in minutes since last access
+     */
+    public void configureAdhocDataSources(JsonObject config) {
+        int size = DEFAULT_ADHOC_CACHE_SIZE;
+        int expiration = DEFAULT_ADHOC_CACHE_EXPIRATION;
+        if (config != null) {
+            size = config.getInteger(CONF_SIZE, size);
+            expiration = config.getInteger(CONF_EXPIRATION, expiration);
+        }
+
+        Cache<String, ClickHouseDataSource> cache = Caffeine.newBuilder().maximumSize(size)
+                .expireAfterAccess(expiration, TimeUnit.MINUTES).recordStats()
+                .<String, ClickHouseDataSource>removalListener((uri, ds, cause) -> {
+                    // eviction knows nothing about leases, so never close an
+                    // ad-hoc datasource under an ongoing request; connection
+                    // string may contain credentials
+                    remove(DataSourceMetrics.ADHOC_DATASOURCE, ds, false);
+                }).build();
+
+        Cache<String, ClickHouseDataSource> oldCache = this.adhocDataSources;
+        // otherwise existing meters, which are bound to the old cache, will be
+        // returned and the new cache is never monitored
+        DataSourceMetrics.removeMeters("cache", ADHOC_CACHE_NAME);
+        this.adhocDataSources = CaffeineCacheMetrics.monitor(DataSourceMetrics.getRegistry(), cache,
+                ADHOC_CACHE_NAME);
+        if (oldCache != null) {
+            oldCache.invalidateAll();
+        }
+    }
+
     protected void remove(String id, ClickHouseDataSource ds) {
+        remove(id, ds, true);
+    }
+
+    /**
+     * Retire the given datasource and close it once it's drained.
+     *
+     * @param id         id of the datasource, only for logging
+     * @param ds         datasource to remove
+     * @param forceClose whether to close the datasource after drain timeout even
+     *                   if it's still in use
+     */
+    private void remove(String id, ClickHouseDataSource ds, boolean forceClose) {
         if (ds == null) {
             return;
         }
 
-        log.info("Removing datasource [{}]...", id);
+        log.info("Retiring datasource [{}] with {} active lease(s)...", id, ds.getLeases());
 
-        try {
-            ds.close();
-        } catch (Exception e) {
-        }
+        // new requests will go to the new instance, and this one will be closed
+        // once ongoing requests are completed, or timed out
+        CompletableFuture<Void> drained = ds.retire();
+        ScheduledFuture<?> timer = forceClose ? this.scheduler.schedule(() -> {
+            if (drained.complete(null)) {
+                log.warn("Datasource [{}] still has {} active lease(s) after {}ms, closing anyway", id,
+                        ds.getLeases(), this.drainTimeout);
+            }
+        }, this.drainTimeout, TimeUnit.MILLISECONDS) : null;
+
+        drained.thenRun(() -> {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+
+            log.info("Removing datasource [{}]...", id);
+
+            try {
+                ds.close();
+            } catch (Exception e) {
+            }
+        });
     }
 
-    protected void update(String id, JsonObject config) {
+    /**
+     * Update datasource in the given mappings.
+     *
+     * @param mappings mutable copy of current mappings
+     * @param id       id of the datasource
+     * @param config   configuration of the datasource
+     * @return datasource replaced by the new one, or null if it's unchanged
+     */
+    protected ClickHouseDataSource update(Map<String, ClickHouseDataSource> mappings, String id, JsonObject config) {
         ClickHouseDataSource ds = mappings.get(id);
+        ClickHouseDataSource retired = null;
 
         boolean addDataSource = false;
         if (ds == null) {
             addDataSource = true;
         } else if (ds.isDifferentFrom(config)) {
-            remove(id, mappings.remove(id));
+            retired = mappings.remove(id);
             addDataSource = true;
         }
 
@@ -137,11 +257,16 @@ public class ClickHouseDataSourceManager implements IDataSourceResolver {
             log.info("Adding datasource [{}]...", id);
 
             try {
-                mappings.put(id, createFromConfig(id, config));
+                ClickHouseDataSource newDs = createFromConfig(id, config);
+                // make sure it's ready before swapping in
+                newDs.warmUp();
+                mappings.put(id, newDs);
             } catch (Exception e) {
                 log.warn("Failed to add datasource [" + id + "]", e);
             }
         }
+
+        return retired;
     }
 
     public void registerTypes(JsonObject config) {
@@ -156,36 +281,53 @@ public class ClickHouseDataSourceManager implements IDataSourceResolver {
         }
     }
 
-    public void reload(JsonObject config) {
+    public synchronized void reload(JsonObject config) {
+        Map<String, ClickHouseDataSource> newMappings = new HashMap<>();
+        Map<String, ClickHouseDataSource> retiredMappings = new HashMap<>();
+
         if (config == null || config.fieldNames().size() == 0) {
             log.info("No datasource configuration found, which is fine");
 
-            mappings.entrySet().forEach(mapping -> {
-                remove(mapping.getKey(), mapping.setValue(null));
-            });
-
-            mappings.clear();
+            retiredMappings.putAll(this.mappings);
         } else {
+            newMappings.putAll(this.mappings);
+
             HashSet<String> keys = new HashSet<>();
             for (Entry<String, Object> entry : config) {
                 String key = entry.getKey();
                 Object value = entry.getValue();
                 if (key != null && value instanceof JsonObject) {
                     keys.add(key);
-                    update(key, (JsonObject) value);
+
+                    ClickHouseDataSource retired = update(newMappings, key, (JsonObject) value);
+                    if (retired != null) {
+                        retiredMappings.put(key, retired);
+                    }
                 }
             }
 
-            Iterator<Map.Entry<String, ClickHouseDataSource>> entryIt = mappings.entrySet().iterator();
-            while (entryIt.hasNext()) {
-                Map.Entry<String, ClickHouseDataSource> entry = entryIt.next();
-                String id = entry.getKey();
-                if (!keys.contains(id)) {
-                    remove(id, entry.setValue(null));
-                    entryIt.remove();
+            newMappings.entrySet().removeIf(entry -> {
+                boolean shouldRemove = !keys.contains(entry.getKey());
+
+                if (shouldRemove) {
+                    retiredMappings.put(entry.getKey(), entry.getValue());
                 }
-            }
+
+                return shouldRemove;
+            });
         }
+
+        // publish new snapshot before closing datasources no longer in use
+        this.mappings = Collections.unmodifiableMap(newMappings);
+
+        retiredMappings.forEach((id, ds) -> {
+            // meters are shared with the new instance when it's merely replaced
+            if (!newMappings.containsKey(id)) {
+                DataSourceMetrics.removeMeters(DataSourceMetrics.TAG_DATASOURCE, id);
+            }
+
+            remove(id, ds);
+        });
     }
 
     /**
@@ -223,7 +365,13 @@ public class ClickHouseDataSourceManager implements IDataSourceResolver {
             }
         }
 
-        ClickHouseDataSource ds = mappings.get(id);
+        ClickHouseDataSource ds = this.mappings.get(id);
+
+        // reuse ad-hoc datasource along with its connection pool
+        if (ds == null && type != null) {
+            final String adhocType = type;
+            ds = this.adhocDataSources.get(uri.trim(), key -> createFromType(key, adhocType, false));
+        }
 
         if (ds == null && (ds = createFromType(uri, type, orCreate)) == null) {
             throw new IllegalArgumentException("Data source [" + uri + "] not found!");
@@ -232,6 +380,26 @@ public class ClickHouseDataSourceManager implements IDataSourceResolver {
         return ds;
     }
 
+    /**
+     * Get or create a data source from given URI, and lease it for a request. The
+     * lease must be released by {@link ClickHouseDataSource#release()} when the
+     * request is completed.
+     *
+     * @param uri      connection string
+     * @param orCreate whether to create ad-hoc datasource when not found
+     * @return leased datasource
+     */
+    public ClickHouseDataSource acquire(String uri, boolean orCreate) {
+        ClickHouseDataSource ds;
+        // retired datasource has been replaced in mappings, so try again to get
+        // the new instance
+        do {
+            ds = get(uri, orCreate);
+        } while (!ds.acquire());
+
+        return ds;
+    }
+
     public final String resolve(String uri) {
         return ClickHouseUtils.applyVariables(uri, this.resolver::apply);
     }
@@ -20,6 +20,7 @@
  */
 package com.github.clickhouse.bridge;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -31,12 +32,13 @@ import io.vertx.core.json.JsonObject;
 public class ClickHouseNamedQueryManager {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClickHouseNamedQueryManager.class);
 
-    private final Map<String, ClickHouseNamedQuery> mappings = new HashMap<>();
+    // immutable snapshot, replaced as a whole on reload
+    private volatile Map<String, ClickHouseNamedQuery> mappings = Collections.emptyMap();
 
     protected ClickHouseNamedQueryManager() {
     }
 
-    protected void update(String id, JsonObject config) {
+    protected void update(Map<String, ClickHouseNamedQuery> mappings, String id, JsonObject config) {
         ClickHouseNamedQuery query = mappings.get(id);
 
         boolean addQuery = false;
@@ -57,21 +59,25 @@ public class ClickHouseNamedQueryManager {
         }
     }
 
-    public void reload(JsonObject config) {
+    public synchronized void reload(JsonObject config) {
+        Map<String, ClickHouseNamedQuery> newMappings = new HashMap<>();
+
         if (config == null || config.fieldNames().size() == 0) {
             log.info("No query configuration found, which is fine");
-            mappings.clear();
         } else {
+            newMappings.putAll(this.mappings);
+
             HashSet<String> keys = new HashSet<>();
             config.forEach(action -> {
                 String id = action.getKey();
                 if (id != null) {
                     keys.add(id);
-                    update(id, action.getValue() instanceof JsonObject ? (JsonObject) action.getValue() : null);
+                    update(newMappings, id,
+                            action.getValue() instanceof JsonObject ? (JsonObject) action.getValue() : null);
                 }
             });
 
-            mappings.entrySet().removeIf(entry -> {
+            newMappings.entrySet().removeIf(entry -> {
                 boolean shouldRemove = !keys.contains(entry.getKey());
 
                 if (shouldRemove) {
@@ -81,9 +87,11 @@ public class ClickHouseNamedQueryManager {
                 return shouldRemove;
             });
         }
+
+        this.mappings = Collections.unmodifiableMap(newMappings);
     }
 
     public ClickHouseNamedQuery get(String query) {
-        return mappings.get(query);
+        return this.mappings.get(query);
     }
 }
\ No newline at end of file
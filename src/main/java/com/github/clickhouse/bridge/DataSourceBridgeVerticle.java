@@ -27,18 +27,29 @@ import java.util.function.Consumer;
 import com.github.clickhouse.bridge.core.ClickHouseBuffer;
 import com.github.clickhouse.bridge.core.ClickHouseColumnInfo;
 import com.github.clickhouse.bridge.core.ClickHouseColumnList;
+import com.github.clickhouse.bridge.core.ClickHouseCompressor;
 import com.github.clickhouse.bridge.core.ClickHouseDataSource;
 import com.github.clickhouse.bridge.core.ClickHouseDataType;
 import com.github.clickhouse.bridge.core.ClickHouseNamedQuery;
+import com.github.clickhouse.bridge.core.ClickHouseRequestReader;
 import com.github.clickhouse.bridge.core.ClickHouseResponseWriter;
 import com.github.clickhouse.bridge.core.ClickHouseUtils;
+import com.github.clickhouse.bridge.core.ClickHouseWorkerExecutor;
 import com.github.clickhouse.bridge.core.QueryParameters;
 import com.github.clickhouse.bridge.core.QueryParser;
+import com.github.clickhouse.bridge.jdbc.ClickHouseJdbcDialect;
 
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
 import io.vertx.config.ConfigRetriever;
 import io.vertx.config.ConfigRetrieverOptions;
 import io.vertx.config.ConfigStoreOptions;
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
 import io.vertx.core.VertxOptions;
 import io.vertx.core.http.HttpServer;
@@ -71,17 +82,31 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
 
     private static final String RESPONSE_CONTENT_TYPE = "application/octet-stream";
 
+    private static final String WRITE_PATH = "/write";
+
     private static final String WRITE_RESPONSE = "Ok.";
     private static final String PING_RESPONSE = WRITE_RESPONSE + "\n";
 
     private final ClickHouseDataSourceManager datasources = new ClickHouseDataSourceManager();
     private final ClickHouseNamedQueryManager queries = new ClickHouseNamedQueryManager();
 
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+
+    private int writeQueueMaxSize = ClickHouseResponseWriter.DEFAULT_WRITE_QUEUE_MAX_SIZE;
+    // zero means never compress query result
+    private int compressionLevel = ClickHouseCompressor.DEFAULT_LEVEL;
+
     @Override
     public void start() {
+        // meters of datasources and worker pools are registered in global registry
+        Metrics.addRegistry(registry);
+
         JsonObject config = ClickHouseUtils.loadJsonFromFile(CONFIG_PATH + "/server.json");
 
         datasources.registerTypes(config.getJsonObject("datasources"));
+        ClickHouseJdbcDialect.registerTypes(config.getJsonObject("dialects"));
+        datasources.setDrainTimeout(config.getLong("drainTimeout", ClickHouseDataSourceManager.DEFAULT_DRAIN_TIMEOUT));
+        datasources.configureAdhocDataSources(config.getJsonObject("adhocDataSources"));
 
         long scanPeriod = config.getLong("configScanPeriod", 5000L);
 
@@ -100,11 +125,7 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
 
         retriever.getConfig(action -> {
             if (action.succeeded()) {
-                try {
-                    loader.accept(action.result());
-                } catch (Exception e) {
-                    log.error("Failed to load configuration", e);
-                }
+                loadConfig(action.result(), loader);
             } else {
                 log.warn("Not able to load configuration from [{}] due to {}", configPath, action.cause().getMessage());
             }
@@ -113,10 +134,19 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
         retriever.listen(change -> {
             log.info("Configuration change in [{}] detected", configPath);
 
-            try {
-                loader.accept(change.getNewConfiguration());
-            } catch (Exception e) {
-                log.error("Failed to reload configuration", e);
+            loadConfig(change.getNewConfiguration(), loader);
+        });
+    }
+
+    // loading configuration may take a while(e.g. warming up connection pools),
+    // so do it on worker thread in order
+    private void loadConfig(JsonObject config, Consumer<JsonObject> loader) {
+        vertx.executeBlocking(promise -> {
+            loader.accept(config);
+            promise.complete();
+        }, true, res -> {
+            if (res.failed()) {
+                log.error("Failed to load configuration", res.cause());
             }
         });
     }
@@ -130,21 +160,40 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
         // https://github.com/vert-x3/vertx-examples/blob/master/web-examples/src/main/java/io/vertx/example/web/mongo/Server.java
         Router router = Router.router(vertx);
 
-        router.route().handler(BodyHandler.create()).handler(this::responseHandlers)
-                .handler(ResponseContentTypeHandler.create()).failureHandler(this::errorHandler);
+        // request body of mutation will be streamed instead of being read in advance
+        BodyHandler bodyHandler = BodyHandler.create();
+        router.route().handler(ctx -> {
+            if (WRITE_PATH.equals(ctx.normalisedPath())) {
+                ctx.next();
+            } else {
+                bodyHandler.handle(ctx);
+            }
+        }).handler(this::responseHandlers).handler(ResponseContentTypeHandler.create())
+                .failureHandler(this::errorHandler);
 
         long requestTimeout = bridgeServerConfig.getLong("requestTimeout", 5000L);
         long queryTimeout = Math.max(requestTimeout, bridgeServerConfig.getLong("queryTimeout", 120000L));
+        // high watermark of the response write queue, in bytes
+        writeQueueMaxSize = bridgeServerConfig.getInteger("writeQueueMaxSize",
+                ClickHouseResponseWriter.DEFAULT_WRITE_QUEUE_MAX_SIZE);
+        // compress query result when it's accepted by client
+        int level = bridgeServerConfig.getInteger("compressionLevel", ClickHouseCompressor.DEFAULT_LEVEL);
+        compressionLevel = Math.max(0, Math.min(level, ClickHouseCompressor.MAX_LEVEL));
+        if (compressionLevel != level) {
+            log.warn("Compression level {} is out of range [0, {}], use {} instead", level,
+                    ClickHouseCompressor.MAX_LEVEL, compressionLevel);
+        }
 
         // stateless endpoints
         router.get("/ping").handler(TimeoutHandler.create(requestTimeout)).handler(this::handlePing);
+        router.get("/metrics").handler(TimeoutHandler.create(requestTimeout)).handler(this::handleMetrics);
         router.post("/columns_info").produces(RESPONSE_CONTENT_TYPE).handler(TimeoutHandler.create(queryTimeout))
                 .handler(this::handleColumnsInfo);
         router.post("/identifier_quote").produces(RESPONSE_CONTENT_TYPE).handler(TimeoutHandler.create(requestTimeout))
                 .handler(this::handleIdentifierQuote);
         router.post("/").produces(RESPONSE_CONTENT_TYPE).handler(TimeoutHandler.create(queryTimeout))
                 .handler(this::handleQuery);
-        router.post("/write").produces(RESPONSE_CONTENT_TYPE).handler(TimeoutHandler.create(queryTimeout))
+        router.post(WRITE_PATH).produces(RESPONSE_CONTENT_TYPE).handler(TimeoutHandler.create(queryTimeout))
                 .handler(this::handleWrite);
 
         log.info("Starting web server...");
@@ -189,14 +238,33 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
     }
 
     private void errorHandler(RoutingContext ctx) {
-        log.error("Failed to respond", ctx.failure());
-        ctx.response().setStatusCode(500).end(ctx.failure().getMessage());
+        Throwable failure = ctx.failure();
+        HttpServerResponse resp = ctx.response();
+
+        // client has gone, or the request was timed out and got ended already
+        if (resp.closed() || resp.ended()) {
+            log.warn("Failed to respond as response was closed or ended: {}",
+                    failure != null ? failure.getMessage() : ctx.statusCode());
+            return;
+        }
+
+        if (failure != null) {
+            log.error("Failed to respond", failure);
+            resp.setStatusCode(500).end(failure.getMessage());
+        } else {
+            log.error("Failed to respond due to status code {}", ctx.statusCode());
+            resp.setStatusCode(ctx.statusCode()).end();
+        }
     }
 
     private void handlePing(RoutingContext ctx) {
         ctx.response().end(PING_RESPONSE);
     }
 
+    private void handleMetrics(RoutingContext ctx) {
+        ctx.response().putHeader("Content-Type", TextFormat.CONTENT_TYPE_004).end(registry.scrape());
+    }
+
     private void handleColumnsInfo(RoutingContext ctx) {
         final QueryParser parser = QueryParser.fromRequest(ctx, datasources);
 
@@ -209,37 +277,42 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
         // Boolean.parseBoolean(req.getParam(PARAM_EXT_TABLE_USE_NULLS));
 
         QueryParameters params = parser.getQueryParameters();
-        ClickHouseDataSource ds = datasources.get(uri, params.isDebug());
-        String dsId = uri;
-        if (ds != null) {
-            dsId = ds.getId();
-            params = ds.newQueryParameters(params);
-        }
-
+        ClickHouseDataSource ds = datasources.acquire(uri, params.isDebug());
         final String columnsInfo;
-        if (params.isDebug()) {
-            columnsInfo = ClickHouseColumnList.DEFAULT_COLUMNS_INFO.toString();
-        } else {
-            // even it's a named query, the column list could be empty
-            ClickHouseNamedQuery namedQuery = queries.get(rawQuery);
-            ClickHouseColumnList columnList = namedQuery != null && namedQuery.hasColumn() ? namedQuery.getColumns()
-                    : ds.getColumns(parser.getSchema(), parser.getNormalizedQuery());
-
-            List<ClickHouseColumnInfo> additionalColumns = new ArrayList<ClickHouseColumnInfo>();
-            if (params.showDatasourceColumn()) {
-                additionalColumns.add(new ClickHouseColumnInfo(ClickHouseColumnList.COLUMN_DATASOURCE,
-                        ClickHouseDataType.String, true, DEFAULT_PRECISION, DEFAULT_SCALE, null, dsId));
-            }
-            if (params.showCustomColumns() && ds != null) {
-                additionalColumns.addAll(ds.getCustomColumns());
+        try {
+            String dsId = uri;
+            if (ds != null) {
+                dsId = ds.getId();
+                params = ds.newQueryParameters(params);
             }
 
-            if (additionalColumns.size() > 0) {
-                columnList = new ClickHouseColumnList(columnList, true,
-                        additionalColumns.toArray(new ClickHouseColumnInfo[0]));
-            }
+            if (params.isDebug()) {
+                columnsInfo = ClickHouseColumnList.DEFAULT_COLUMNS_INFO.toString();
+            } else {
+                // even it's a named query, the column list could be empty
+                ClickHouseNamedQuery namedQuery = queries.get(rawQuery);
+                ClickHouseColumnList columnList = namedQuery != null && namedQuery.hasColumn()
+                        ? namedQuery.getColumns()
+                        : ds.getColumns(parser.getSchema(), parser.getNormalizedQuery());
+
+                List<ClickHouseColumnInfo> additionalColumns = new ArrayList<ClickHouseColumnInfo>();
+                if (params.showDatasourceColumn()) {
+                    additionalColumns.add(new ClickHouseColumnInfo(ClickHouseColumnList.COLUMN_DATASOURCE,
+                            ClickHouseDataType.String, true, DEFAULT_PRECISION, DEFAULT_SCALE, null, dsId));
+                }
+                if (params.showCustomColumns() && ds != null) {
+                    additionalColumns.addAll(ds.getCustomColumns());
+                }
 
-            columnsInfo = columnList.toString();
+                if (additionalColumns.size() > 0) {
+                    columnList = new ClickHouseColumnList(columnList, true,
+                            additionalColumns.toArray(new ClickHouseColumnInfo[0]));
+                }
+
+                columnsInfo = columnList.toString();
+            }
+        } finally {
+            ds.release();
         }
 
         log.debug("Columns info:\n[{}]", columnsInfo);
@@ -248,10 +321,14 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
 
     private void handleIdentifierQuote(RoutingContext ctx) {
         String uri = QueryParser.extractConnectionString(ctx, datasources);
-        ClickHouseDataSource ds = datasources.get(uri, true);
+        ClickHouseDataSource ds = datasources.acquire(uri, true);
 
-        // ds == null ? ClickHouseDataSource.DEFAULT_QUOTE_IDENTIFIER :
-        ctx.response().end(ClickHouseBuffer.asBuffer(ds.getQuoteIdentifier()));
+        try {
+            // ds == null ? ClickHouseDataSource.DEFAULT_QUOTE_IDENTIFIER :
+            ctx.response().end(ClickHouseBuffer.asBuffer(ds.getQuoteIdentifier()));
+        } finally {
+            ds.release();
+        }
     }
 
     private void handleQuery(RoutingContext ctx) {
@@ -259,12 +336,17 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
 
         ctx.response().setChunked(true);
 
-        vertx.executeBlocking(promise -> {
-            log.trace("About to execute query...");
+        // find out datasource on event loop, so that we know which worker pool to use
+        final ClickHouseDataSource ds = datasources.acquire(parser.getConnectionString(),
+                parser.getQueryParameters().isDebug());
+        final QueryParameters params = ds == null ? parser.getQueryParameters()
+                : ds.newQueryParameters(parser.getQueryParameters());
+        final String encoding = compressionLevel > 0
+                ? ClickHouseCompressor.negotiate(ctx.request().getHeader("Accept-Encoding"))
+                : null;
 
-            QueryParameters params = parser.getQueryParameters();
-            ClickHouseDataSource ds = datasources.get(parser.getConnectionString(), params.isDebug());
-            params = ds == null ? params : ds.newQueryParameters(params);
+        executeBlocking(ds, promise -> {
+            log.trace("About to execute query...");
 
             String generatedQuery = parser.getRawQuery();
             String normalizedQuery = parser.getNormalizedQuery();
@@ -277,61 +359,75 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
 
             final HttpServerResponse resp = ctx.response();
 
-            ClickHouseResponseWriter writer = new ClickHouseResponseWriter(resp, parser.getStreamOptions());
+            ClickHouseResponseWriter writer = new ClickHouseResponseWriter(resp, parser.getStreamOptions(),
+                    writeQueueMaxSize, encoding == null ? null : new ClickHouseCompressor(encoding, compressionLevel));
 
-            if (params.isDebug()) {
-                ClickHouseDataSource.writeDebugInfo(ds.getId(), ds.getType(),
-                        ds.getColumns(parser.getSchema(), normalizedQuery), normalizedQuery, params, writer);
-            } else {
-                long executionStartTime = System.currentTimeMillis();
-                if (namedQuery != null) {
-                    log.debug("Found named query: [{}]", namedQuery);
-
-                    // columns in request might just be a subset of defined list
-                    // for example:
-                    // - named query 'test' is: select a, b, c from table
-                    // - clickhouse query: select b, a from jdbc('?','','test')
-                    // - requested columns: b, a
-                    ds.executeQuery(namedQuery, parser.getColumnList(), params, writer);
+            // compressor holds native memory, which has to be released even when the
+            // query failed or was cancelled
+            try {
+                if (params.isDebug()) {
+                    ClickHouseDataSource.writeDebugInfo(ds.getId(), ds.getType(),
+                            ds.getColumns(parser.getSchema(), normalizedQuery), normalizedQuery, params, writer);
                 } else {
-                    // columnsInfo could be different from what we responded earlier, so let's parse
-                    // it again
-                    Boolean containsWhitespace = null;
-                    for (int i = 0; i < normalizedQuery.length(); i++) {
-                        char ch = normalizedQuery.charAt(i);
-                        if (Character.isWhitespace(ch)) {
-                            if (containsWhitespace != null) {
-                                containsWhitespace = Boolean.TRUE;
-                                break;
+                    long executionStartTime = System.currentTimeMillis();
+                    if (namedQuery != null) {
+                        log.debug("Found named query: [{}]", namedQuery);
+
+                        // columns in request might just be a subset of defined list
+                        // for example:
+                        // - named query 'test' is: select a, b, c from table
+                        // - clickhouse query: select b, a from jdbc('?','','test')
+                        // - requested columns: b, a
+                        ds.executeQuery(namedQuery, parser.getColumnList(), params, writer);
+                    } else {
+                        // columnsInfo could be different from what we responded earlier, so let's parse
+                        // it again
+                        Boolean containsWhitespace = null;
+                        for (int i = 0; i < normalizedQuery.length(); i++) {
+                            char ch = normalizedQuery.charAt(i);
+                            if (Character.isWhitespace(ch)) {
+                                if (containsWhitespace != null) {
+                                    containsWhitespace = Boolean.TRUE;
+                                    break;
+                                }
+                            } else if (containsWhitespace == null) {
+                                containsWhitespace = Boolean.FALSE;
                             }
-                        } else if (containsWhitespace == null) {
-                            containsWhitespace = Boolean.FALSE;
                         }
-                    }
 
-                    ClickHouseColumnList queryColumns = parser.getColumnList();
-                    // unfortunately default values will be lost between two requests, so we have to
-                    // add it back...
-                    List<ClickHouseColumnInfo> additionalColumns = new ArrayList<ClickHouseColumnInfo>();
-                    if (params.showDatasourceColumn()) {
-                        additionalColumns.add(new ClickHouseColumnInfo(ClickHouseColumnList.COLUMN_DATASOURCE,
-                                ClickHouseDataType.String, true, DEFAULT_PRECISION, DEFAULT_SCALE, null, ds.getId()));
-                    }
-                    if (params.showCustomColumns()) {
-                        additionalColumns.addAll(ds.getCustomColumns());
+                        ClickHouseColumnList queryColumns = parser.getColumnList();
+                        // unfortunately default values will be lost between two requests, so we have to
+                        // add it back...
+                        List<ClickHouseColumnInfo> additionalColumns = new ArrayList<ClickHouseColumnInfo>();
+                        if (params.showDatasourceColumn()) {
+                            additionalColumns.add(new ClickHouseColumnInfo(ClickHouseColumnList.COLUMN_DATASOURCE,
+                                    ClickHouseDataType.String, true, DEFAULT_PRECISION, DEFAULT_SCALE, null,
+                                    ds.getId()));
+                        }
+                        if (params.showCustomColumns()) {
+                            additionalColumns.addAll(ds.getCustomColumns());
+                        }
+
+                        queryColumns.updateValues(additionalColumns);
+                        ds.executeSharedQuery(
+                                Boolean.TRUE.equals(containsWhitespace) ? normalizedQuery : generatedQuery,
+                                queryColumns, params, writer);
                     }
 
-                    queryColumns.updateValues(additionalColumns);
-                    ds.executeQuery(Boolean.TRUE.equals(containsWhitespace) ? normalizedQuery : generatedQuery,
-                            queryColumns, params, writer);
+                    log.debug("Completed execution in {} ms.", System.currentTimeMillis() - executionStartTime);
                 }
 
-                log.debug("Completed execution in {} ms.", System.currentTimeMillis() - executionStartTime);
+                writer.finish();
+                promise.complete();
+            } finally {
+                writer.release();
             }
-
-            promise.complete();
-        }, false, res -> {
-            if (res.succeeded()) {
+        }, res -> {
+            if (ctx.response().ended() && res.succeeded()) { // cached result was sent from file
+                log.debug("Sent back cached query result");
+            } else if (ctx.response().ended()) { // timed out
+                log.debug("Response was ended before query completes", res.cause());
+            } else if (res.succeeded()) {
                 log.debug("Wrote back query result");
                 ctx.response().end();
             } else {
@@ -346,14 +442,17 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
 
         ctx.response().setChunked(true);
 
-        vertx.executeBlocking(promise -> {
-            log.trace("About to execute mutation...");
+        // start reading request body on event loop
+        final ClickHouseRequestReader reader = new ClickHouseRequestReader(ctx.request(), parser.getStreamOptions());
 
-            QueryParameters params = parser.getQueryParameters();
-            ClickHouseDataSource ds = datasources.get(parser.getConnectionString(), params.isDebug());
-            params = ds == null ? params : ds.newQueryParameters(params);
+        final ClickHouseDataSource ds = datasources.acquire(parser.getConnectionString(),
+                parser.getQueryParameters().isDebug());
+        final QueryParameters params = ds == null ? parser.getQueryParameters()
+                : ds.newQueryParameters(parser.getQueryParameters());
+
+        executeBlocking(ds, promise -> {
+            log.trace("About to execute mutation...");
 
-            final HttpServerRequest req = ctx.request();
             final HttpServerResponse resp = ctx.response();
 
             final String generatedQuery = parser.getRawQuery();
@@ -373,14 +472,20 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
                 table = parser.extractTable(ds.loadSavedQueryAsNeeded(normalizedQuery));
             }
 
-            ds.executeUpdate(parser.getSchema(), table, parser.getColumnList(), params,
-                    ClickHouseBuffer.wrap(ctx.getBody()));
+            ds.executeUpdate(parser.getSchema(), table, parser.getColumnList(), params, reader);
 
             resp.write(ClickHouseBuffer.asBuffer(WRITE_RESPONSE));
 
             promise.complete();
-        }, false, res -> {
-            if (res.succeeded()) {
+        }, res -> {
+            if (res.failed()) {
+                // rest of the request body will never be read by the worker
+                reader.discard();
+            }
+
+            if (ctx.response().ended()) { // timed out
+                log.debug("Response was ended before query completes", res.cause());
+            } else if (res.succeeded()) {
                 log.debug("Wrote back query result");
                 ctx.response().end();
             } else {
@@ -389,6 +494,27 @@ public class DataSourceBridgeVerticle extends AbstractVerticle {
         });
     }
 
+    // use dedicated worker pool of the datasource when possible, so that slow
+    // datasource will not affect others; lease of the datasource will be released
+    // after the result is handled
+    private <T> void executeBlocking(ClickHouseDataSource ds, Handler<Promise<T>> blockingCodeHandler,
+            Handler<AsyncResult<T>> resultHandler) {
+        Handler<AsyncResult<T>> handler = ds == null ? resultHandler : res -> {
+            try {
+                resultHandler.handle(res);
+            } finally {
+                ds.release();
+            }
+        };
+
+        ClickHouseWorkerExecutor executor = ds == null ? null : ds.getWorkerExecutor(vertx);
+        if (executor != null) {
+            executor.executeBlocking(blockingCodeHandler, handler);
+        } else {
+            vertx.executeBlocking(blockingCodeHandler, false, handler);
+        }
+    }
+
     public static void main(String[] args) {
         startTime = System.currentTimeMillis();
 
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.util.Objects;
+import java.util.TimeZone;
+
+import io.vertx.core.Handler;
+
+/**
+ * Accumulates encoded rows into blocks, so that the response is written block
+ * by block instead of row by row. In Native format, rows are accumulated into
+ * a {@link ClickHouseNativeBlock} instead of a RowBinary buffer.
+ */
+public class ClickHouseBlockWriter {
+    private static final int MIN_BLOCK_BYTES = 4096;
+
+    private final Handler<ClickHouseBuffer> sink;
+    private final TimeZone timezone;
+
+    private final int maxRows;
+    private final int maxBytes;
+
+    // null unless output format is Native
+    private final ClickHouseNativeBlock nativeBlock;
+
+    private ClickHouseBuffer buffer;
+    private int rows;
+
+    public ClickHouseBlockWriter(ClickHouseResponseWriter writer, TimeZone timezone) {
+        this(writer, timezone, null);
+    }
+
+    public ClickHouseBlockWriter(ClickHouseResponseWriter writer, TimeZone timezone,
+            ClickHouseColumnInfo[] columns) {
+        this(Objects.requireNonNull(writer).getOptions(), timezone, columns, writer::write);
+    }
+
+    /**
+     * Create a block writer, which passes full blocks to the given sink instead
+     * of a response writer, for example, a queue shared by multiple threads.
+     *
+     * @param options  stream options
+     * @param timezone timezone
+     * @param sink     sink of full blocks
+     */
+    public ClickHouseBlockWriter(StreamOptions options, TimeZone timezone, Handler<ClickHouseBuffer> sink) {
+        this(options, timezone, null, sink);
+    }
+
+    /**
+     * Create a block writer, which writes Native format when it's requested in
+     * stream options and columns are given, or RowBinary otherwise.
+     *
+     * @param options  stream options
+     * @param timezone timezone
+     * @param columns  columns of the query result, could be null
+     * @param sink     sink of full blocks
+     */
+    public ClickHouseBlockWriter(StreamOptions options, TimeZone timezone, ClickHouseColumnInfo[] columns,
+            Handler<ClickHouseBuffer> sink) {
+        this.sink = Objects.requireNonNull(sink);
+        this.timezone = timezone;
+
+        this.maxRows = Math.max(1, options.getMaxBlockSize());
+        this.maxBytes = Math.max(1, options.getMaxBlockBytes());
+
+        if (columns != null && options.isNativeFormat()) {
+            this.nativeBlock = new ClickHouseNativeBlock(columns, timezone);
+            this.buffer = null;
+        } else {
+            this.nativeBlock = null;
+            this.buffer = ClickHouseBuffer.newInstance(Math.min(this.maxBytes, MIN_BLOCK_BYTES), timezone);
+        }
+        this.rows = 0;
+    }
+
+    /**
+     * Get buffer of current block. Be aware that the buffer will be replaced
+     * after flushing, so don't hold the reference across rows.
+     *
+     * @return buffer of current block
+     */
+    public ClickHouseBuffer getBuffer() {
+        return this.buffer;
+    }
+
+    /**
+     * Get current block in Native format.
+     *
+     * @return current block, or null if output format is not Native
+     */
+    public ClickHouseNativeBlock getNativeBlock() {
+        return this.nativeBlock;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    public void endRow() {
+        if (this.nativeBlock != null) {
+            this.nativeBlock.endRow();
+        }
+
+        if (++this.rows >= this.maxRows || (this.nativeBlock != null ? this.nativeBlock.length()
+                : this.buffer.length()) >= this.maxBytes) {
+            flush();
+        }
+    }
+
+    public void flush() {
+        if (this.rows > 0 && this.nativeBlock != null) {
+            this.sink.handle(this.nativeBlock.flush());
+            this.rows = 0;
+        } else if (this.rows > 0) {
+            int length = this.buffer.length();
+
+            // the block is now owned by the response, so we need a new one
+            this.sink.handle(this.buffer);
+
+            this.buffer = ClickHouseBuffer.newInstance(Math.max(MIN_BLOCK_BYTES, Math.min(length, this.maxBytes)),
+                    this.timezone);
+            this.rows = 0;
+        }
+    }
+}
@@ -22,23 +22,31 @@ package com.github.clickhouse.bridge.core;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.Objects;
 import java.util.TimeZone;
 
+import io.netty.buffer.ByteBuf;
 import io.vertx.core.buffer.Buffer;
 
 import static com.github.clickhouse.bridge.core.ClickHouseUtils.*;
 
 public final class ClickHouseBuffer {
+    // 2^64, for converting negative long to unsigned BigInteger
+    private static final BigInteger U_INT64_OFFSET = BigInteger.ONE.shiftLeft(64);
+
     // self-maintained readerIndex
     protected int position = 0;
 
     protected final Buffer buffer;
     protected final TimeZone timezone;
 
+    // duplicate of the inner Netty ByteBuf, sharing content but not indexes
+    private ByteBuf byteBuf;
+
     public static ClickHouseBuffer wrap(Buffer buffer, TimeZone timezone) {
         return new ClickHouseBuffer(buffer, timezone);
     }
@@ -64,6 +72,44 @@ public final class ClickHouseBuffer {
         this.timezone = timezone;
     }
 
+    /**
+     * Get number of bytes needed to encode the given string in UTF-8. Unpaired
+     * surrogate is counted as one byte, same as {@link String#getBytes}, which
+     * replaces it with {@code '?'}.
+     *
+     * @param value non-null string
+     * @return length in bytes
+     */
+    static int getUtf8Length(String value) {
+        int len = value.length();
+        int length = len;
+
+        for (int i = 0; i < len; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            } else if (c < 0x800) {
+                length++;
+            } else if (!Character.isSurrogate(c)) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+                // two chars, four bytes
+                length += 2;
+                i++;
+            }
+        }
+
+        return length;
+    }
+
+    private ByteBuf getByteBuf() {
+        if (this.byteBuf == null) {
+            this.byteBuf = this.buffer.getByteBuf();
+        }
+
+        return this.byteBuf;
+    }
+
     public int length() {
         // writerIndex of the inner Netty ByteBuf
         return this.buffer.length();
@@ -73,6 +119,100 @@ public final class ClickHouseBuffer {
         return this.position >= this.buffer.length();
     }
 
+    public int remaining() {
+        return Math.max(0, this.buffer.length() - this.position);
+    }
+
+    private int getFixedLength(ClickHouseColumnInfo column) {
+        final int length;
+
+        switch (column.getType()) {
+            case Int8:
+            case UInt8:
+                length = 1;
+                break;
+            case Int16:
+            case UInt16:
+            case Date:
+                length = 2;
+                break;
+            case Int32:
+            case UInt32:
+            case Float32:
+            case DateTime:
+            case Decimal32:
+                length = 4;
+                break;
+            case Int64:
+            case UInt64:
+            case Float64:
+            case DateTime64:
+            case Decimal64:
+                length = 8;
+                break;
+            case Decimal128:
+                length = 16;
+                break;
+            case Decimal:
+                length = column.getPrecision() > 18 ? 16 : (column.getPrecision() > 9 ? 8 : 4);
+                break;
+            case String:
+            default:
+                length = -1;
+                break;
+        }
+
+        return length;
+    }
+
+    /**
+     * Check if there's a complete row in RowBinary format starting from current
+     * position. Reader index will NOT be changed.
+     *
+     * @param columns columns of the row
+     * @return true if the whole row is available; false otherwise
+     */
+    public boolean hasCompleteRow(ClickHouseColumnInfo[] columns) {
+        int limit = this.buffer.length();
+        int index = this.position;
+
+        for (ClickHouseColumnInfo column : columns) {
+            if (column.isNullable()) {
+                if (index >= limit) {
+                    return false;
+                }
+
+                if (this.buffer.getByte(index++) != 0) { // null
+                    continue;
+                }
+            }
+
+            int length = getFixedLength(column);
+            if (length < 0) { // LEB128 length + bytes
+                int value = 0;
+                int count = 0;
+                int read;
+                do {
+                    if (index >= limit) {
+                        return false;
+                    }
+
+                    read = this.buffer.getByte(index++) & 0xff;
+                    value |= (read & 0x7f) << (count * 7);
+                    count++;
+                } while (((read & 0x80) == 0x80) && count < 5);
+
+                length = value;
+            }
+
+            if ((index += length) > limit) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     public int readUnsignedLeb128() {
         int value = 0;
         int read;
@@ -118,10 +258,8 @@ public final class ClickHouseBuffer {
     }
 
     public void readBytes(byte[] bytes, int offset, int length) {
-        byte[] readBytes = this.buffer.getBytes(this.position, this.position + length);
+        this.buffer.getBytes(this.position, this.position + length, bytes, offset);
         this.position += length;
-
-        System.arraycopy(readBytes, 0, bytes, 0, length);
     }
 
     public ClickHouseBuffer writeBytes(byte[] value) {
@@ -130,6 +268,12 @@ public final class ClickHouseBuffer {
         return this;
     }
 
+    public ClickHouseBuffer writeBytes(ClickHouseBuffer value) {
+        this.buffer.appendBuffer(value.buffer);
+
+        return this;
+    }
+
     public boolean readBoolean() {
         byte value = this.readByte();
 
@@ -193,7 +337,7 @@ public final class ClickHouseBuffer {
     }
 
     public ClickHouseBuffer writeInt16(short value) {
-        this.buffer.appendByte((byte) (0xFFL & value)).appendByte((byte) (0xFFL & (value >> 8)));
+        this.buffer.appendShortLE(value);
         return this;
     }
 
@@ -222,8 +366,7 @@ public final class ClickHouseBuffer {
     }
 
     public ClickHouseBuffer writeInt32(int value) {
-        this.buffer.appendByte((byte) (0xFFL & value)).appendByte((byte) (0xFFL & (value >> 8)))
-                .appendByte((byte) (0xFFL & (value >> 16))).appendByte((byte) (0xFFL & (value >> 24)));
+        this.buffer.appendIntLE(value);
         return this;
     }
 
@@ -246,19 +389,24 @@ public final class ClickHouseBuffer {
     }
 
     public ClickHouseBuffer writeInt64(long value) {
-        value = Long.reverseBytes(value);
-
-        byte[] bytes = new byte[8];
-        for (int i = 7; i >= 0; i--) {
-            bytes[i] = (byte) (value & 0xFFL);
-            value >>= 8;
-        }
+        this.buffer.appendLongLE(value);
+        return this;
+    }
 
-        return writeBytes(bytes);
+    /**
+     * Read UInt64 without creating BigInteger. Values greater than
+     * {@link Long#MAX_VALUE} will be negative, use
+     * {@link Long#toUnsignedString(long)} and alike to handle them.
+     *
+     * @return unsigned 64-bit integer stored in a signed long
+     */
+    public long readUInt64AsLong() {
+        return this.readInt64();
     }
 
     public BigInteger readUInt64() {
-        return new BigInteger(Long.toUnsignedString(this.readInt64()));
+        long value = this.readInt64();
+        return value >= 0L ? BigInteger.valueOf(value) : BigInteger.valueOf(value).add(U_INT64_OFFSET);
     }
 
     public ClickHouseBuffer writeUInt64(long value) {
@@ -289,19 +437,34 @@ public final class ClickHouseBuffer {
         return writeInt64(Double.doubleToLongBits(value));
     }
 
+    // 128-bit signed integer in little-endian
     public ClickHouseBuffer writeBigInteger(BigInteger value) {
-        byte[] bytes = value.toByteArray();
-        for (int i = bytes.length; i > 0; i--) {
-            writeByte(bytes[i - 1]);
-        }
+        long low = value.longValue();
+        long high = value.bitLength() < 64 ? (low < 0L ? -1L : 0L) : value.shiftRight(64).longValue();
 
-        writeBytes(new byte[16 - bytes.length]);
+        this.buffer.appendLongLE(low).appendLongLE(high);
 
         return this;
     }
 
+    public BigInteger readBigInteger() {
+        long low = this.readInt64();
+        long high = this.readInt64();
+
+        BigInteger value;
+        if (high == (low >> 63)) { // fits in long
+            value = BigInteger.valueOf(low);
+        } else {
+            value = BigInteger.valueOf(high).shiftLeft(64)
+                    .add(low >= 0L ? BigInteger.valueOf(low) : BigInteger.valueOf(low).add(U_INT64_OFFSET));
+        }
+
+        return value;
+    }
+
     private BigInteger toBigInteger(BigDecimal value, int scale) {
-        return value.multiply(BigDecimal.valueOf(10).pow(scale)).toBigInteger();
+        // same as multiplying 10^scale and then dropping the fraction
+        return value.setScale(scale, RoundingMode.DOWN).unscaledValue();
     }
 
     public BigDecimal readDecimal(int precision, int scale) {
@@ -314,7 +477,7 @@ public final class ClickHouseBuffer {
     }
 
     public BigDecimal readDecimal32(int scale) {
-        return new BigDecimal(this.readInt32()).divide(BigDecimal.valueOf(10).pow(scale));
+        return BigDecimal.valueOf(this.readInt32(), scale);
     }
 
     public ClickHouseBuffer writeDecimal32(BigDecimal value, int scale) {
@@ -322,7 +485,7 @@ public final class ClickHouseBuffer {
     }
 
     public BigDecimal readDecimal64(int scale) {
-        return new BigDecimal(this.readInt64()).divide(BigDecimal.valueOf(10).pow(scale));
+        return BigDecimal.valueOf(this.readInt64(), scale);
     }
 
     public ClickHouseBuffer writeDecimal64(BigDecimal value, int scale) {
@@ -330,24 +493,19 @@ public final class ClickHouseBuffer {
     }
 
     public BigDecimal readDecimal128(int scale) {
-        byte[] r = new byte[16];
-        for (int i = 16; i > 0; i--) {
-            r[i - 1] = this.readByte();
+        long low = this.buffer.getLongLE(this.position);
+        long high = this.buffer.getLongLE(this.position + 8);
+
+        if (high == (low >> 63)) { // no BigInteger needed
+            this.position += 16;
+            return BigDecimal.valueOf(low, scale);
         }
 
-        return new BigDecimal(new BigInteger(r), scale);
+        return new BigDecimal(readBigInteger(), scale);
     }
 
     public ClickHouseBuffer writeDecimal128(BigDecimal value, int scale) {
-        byte[] bytes = toBigInteger(value, scale).toByteArray();
-
-        for (int i = bytes.length; i > 0; i--) {
-            writeByte(bytes[i - 1]);
-        }
-
-        writeBytes(new byte[16 - bytes.length]);
-
-        return this;
+        return writeBigInteger(toBigInteger(value, scale));
     }
 
     public Timestamp readDateTime() {
@@ -355,13 +513,17 @@ public final class ClickHouseBuffer {
     }
 
     public Timestamp readDateTime(TimeZone tz) {
+        return new Timestamp(readDateTimeAsMillis(tz));
+    }
+
+    public long readDateTimeAsMillis(TimeZone tz) {
         long time = this.readUInt32() * 1000L;
 
         if ((tz = tz == null ? this.timezone : tz) != null) {
             time -= tz.getOffset(time);
         }
 
-        return new Timestamp(time <= 0L ? 1L : time);
+        return time <= 0L ? 1L : time;
     }
 
     public ClickHouseBuffer writeDateTime(Date value) {
@@ -385,17 +547,8 @@ public final class ClickHouseBuffer {
             time = DATETIME_MAX;
         }
 
-        time = time / 1000L;
-
-        if (time > Integer.MAX_VALUE) {
-            // https://github.com/google/guava/blob/master/guava/src/com/google/common/io/LittleEndianDataOutputStream.java#L130
-            this.buffer.appendBytes(new byte[] { (byte) (0x0FFL & time), (byte) (0x0FFL & (time >> 8)),
-                    (byte) (0x0FFL & (time >> 16)), (byte) (0x0FFL & (time >> 24)) });
-        } else {
-            writeUInt32((int) time);
-        }
-
-        return this;
+        // lower 4 bytes of an unsigned 32-bit integer
+        return writeInt32((int) (time / 1000L));
     }
 
     public Timestamp readDateTime64() {
@@ -403,17 +556,17 @@ public final class ClickHouseBuffer {
     }
 
     public Timestamp readDateTime64(TimeZone tz) {
-        BigInteger time = this.readUInt64();
+        return new Timestamp(readDateTime64AsMillis(tz));
+    }
 
-        if ((tz = tz == null ? this.timezone : tz) != null) {
-            time = time.subtract(BigInteger.valueOf(tz.getOffset(time.longValue())));
-        }
+    public long readDateTime64AsMillis(TimeZone tz) {
+        long time = this.readInt64();
 
-        if (time.compareTo(BigInteger.ZERO) < 0) { // 0000-00-00 00:00:00
-            time = BigInteger.ONE;
+        if ((tz = tz == null ? this.timezone : tz) != null) {
+            time -= tz.getOffset(time);
         }
 
-        return new Timestamp(time.longValue());
+        return time < 0L ? 1L : time; // 0000-00-00 00:00:00
     }
 
     public ClickHouseBuffer writeDateTime64(Date value) {
@@ -463,18 +616,15 @@ public final class ClickHouseBuffer {
     }
 
     public String readString() {
-        int length = this.readUnsignedLeb128();
-        byte[] bytes = new byte[length];
-        this.readBytes(bytes);
-
-        return new String(bytes, StandardCharsets.UTF_8);
+        return readFixedString(this.readUnsignedLeb128());
     }
 
     public String readFixedString(int length) {
-        byte[] bytes = new byte[length];
-        this.readBytes(bytes);
+        // decode from the backing array directly, instead of copying bytes out
+        String value = getByteBuf().toString(this.position, length, StandardCharsets.UTF_8);
+        this.position += length;
 
-        return new String(bytes, StandardCharsets.UTF_8);
+        return value;
     }
 
     public ClickHouseBuffer writeString(String value) {
@@ -484,8 +634,41 @@ public final class ClickHouseBuffer {
     public ClickHouseBuffer writeString(String value, boolean normalize) {
         Objects.requireNonNull(value);
 
-        byte[] bytes = (normalize ? value.replace('\r', ' ') : value).getBytes(StandardCharsets.UTF_8);
-        return writeUnsignedLeb128(bytes.length).writeBytes(bytes);
+        int length = getUtf8Length(value);
+        writeUnsignedLeb128(length);
+        if (length == 0) {
+            return this;
+        }
+
+        int index = this.buffer.length();
+        // grow the buffer and move writerIndex in one go, then fill in the bytes
+        this.buffer.setByte(index + length - 1, (byte) 0);
+
+        ByteBuf buf = getByteBuf();
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf.setByte(index++, normalize && c == '\r' ? ' ' : c);
+            } else if (c < 0x800) {
+                buf.setByte(index++, 0xC0 | (c >> 6));
+                buf.setByte(index++, 0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                buf.setByte(index++, 0xE0 | (c >> 12));
+                buf.setByte(index++, 0x80 | ((c >> 6) & 0x3F));
+                buf.setByte(index++, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf.setByte(index++, 0xF0 | (codePoint >> 18));
+                buf.setByte(index++, 0x80 | ((codePoint >> 12) & 0x3F));
+                buf.setByte(index++, 0x80 | ((codePoint >> 6) & 0x3F));
+                buf.setByte(index++, 0x80 | (codePoint & 0x3F));
+            } else {
+                // unpaired surrogate
+                buf.setByte(index++, '?');
+            }
+        }
+
+        return this;
     }
 
     public ClickHouseBuffer writeDefaultValue(ClickHouseColumnInfo column, DefaultValues defaultValues) {
@@ -350,23 +350,18 @@ public class ClickHouseColumnInfo {
         return col;
     }
 
-    @Override
-    public String toString() {
+    /**
+     * Get full name of the data type, for example {@code Nullable(Decimal(18,4))}.
+     *
+     * @return full name of the data type
+     */
+    public String getTypeName() {
         StringBuilder sb = new StringBuilder();
+        appendTypeName(sb);
+        return sb.toString();
+    }
 
-        char quote = '`';
-        sb.append(quote);
-        for (int i = 0; i < this.name.length(); i++) {
-            char ch = this.name.charAt(i);
-            if (ch == quote) {
-                sb.append(quote).append(quote);
-            } else {
-                sb.append(ch);
-            }
-        }
-
-        sb.append(quote).append(' ');
-
+    private void appendTypeName(StringBuilder sb) {
         int index = sb.length();
 
         sb.append(this.type.name());
@@ -389,6 +384,26 @@ public class ClickHouseColumnInfo {
         if (this.nullable) {
             sb.insert(index, NULLABLE_BEGIN).append(NULLABLE_END);
         }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        char quote = '`';
+        sb.append(quote);
+        for (int i = 0; i < this.name.length(); i++) {
+            char ch = this.name.charAt(i);
+            if (ch == quote) {
+                sb.append(quote).append(quote);
+            } else {
+                sb.append(ch);
+            }
+        }
+
+        sb.append(quote).append(' ');
+
+        appendTypeName(sb);
 
         if (DEFAULT_VALUE_SUPPORT && this.hasDefaultValue) {
             sb.append(' ').append(TOKEN_DEFAULT).append(' ');
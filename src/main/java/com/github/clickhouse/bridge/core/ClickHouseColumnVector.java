@@ -0,0 +1,475 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.TimeZone;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Values of a column in a block, stored in primitive arrays so that filling
+ * them using typed getters like {@link java.sql.ResultSet#getLong(int)} does
+ * not box anything. Null flags of a nullable column are kept in a bitmap.
+ * Columns of non-primitive types, including strings, are kept as encoded
+ * bytes along with offsets of each value.
+ */
+public abstract class ClickHouseColumnVector {
+    private static final int MIN_CAPACITY = 16;
+
+    // placeholders of null values, which are ignored by ClickHouse anyway
+    private static final DefaultValues NULL_PLACEHOLDERS = new DefaultValues();
+
+    /**
+     * Vector of Int8, Int16, Int32, UInt8 and UInt16 values.
+     */
+    public static final class IntVector extends ClickHouseColumnVector {
+        // number of bytes of each value in Native format
+        private final int width;
+
+        private int[] values;
+
+        IntVector(ClickHouseColumnInfo column, int width, int capacity) {
+            super(column, capacity);
+
+            this.width = width;
+            this.values = new int[capacity];
+        }
+
+        public void append(int value) {
+            int index = nextIndex();
+            if (index == this.values.length) {
+                this.values = Arrays.copyOf(this.values, grow(index));
+            }
+            this.values[index] = value;
+        }
+
+        public int get(int row) {
+            return this.values[row];
+        }
+
+        @Override
+        void appendEncoded(ClickHouseBuffer value) {
+            append(this.width == 1 ? value.readInt8() : (this.width == 2 ? value.readInt16() : value.readInt32()));
+        }
+
+        @Override
+        int getValueLength() {
+            return this.width * this.size;
+        }
+
+        @Override
+        void writeValuesTo(ClickHouseBuffer buffer) {
+            ByteBuffer bb = ByteBuffer.allocate(getValueLength()).order(ByteOrder.LITTLE_ENDIAN);
+            if (this.width == 4) {
+                bb.asIntBuffer().put(this.values, 0, this.size);
+            } else if (this.width == 2) {
+                for (int i = 0; i < this.size; i++) {
+                    bb.putShort((short) this.values[i]);
+                }
+            } else {
+                for (int i = 0; i < this.size; i++) {
+                    bb.put((byte) this.values[i]);
+                }
+            }
+
+            buffer.writeBytes(bb.array());
+        }
+    }
+
+    /**
+     * Vector of Int64, UInt32 and UInt64 values.
+     */
+    public static final class LongVector extends ClickHouseColumnVector {
+        // number of bytes of each value in Native format
+        private final int width;
+
+        private long[] values;
+
+        LongVector(ClickHouseColumnInfo column, int width, int capacity) {
+            super(column, capacity);
+
+            this.width = width;
+            this.values = new long[capacity];
+        }
+
+        public void append(long value) {
+            int index = nextIndex();
+            if (index == this.values.length) {
+                this.values = Arrays.copyOf(this.values, grow(index));
+            }
+            this.values[index] = value;
+        }
+
+        public long get(int row) {
+            return this.values[row];
+        }
+
+        @Override
+        void appendEncoded(ClickHouseBuffer value) {
+            append(this.width == 4 ? value.readUInt32() : value.readInt64());
+        }
+
+        @Override
+        int getValueLength() {
+            return this.width * this.size;
+        }
+
+        @Override
+        void writeValuesTo(ClickHouseBuffer buffer) {
+            ByteBuffer bb = ByteBuffer.allocate(getValueLength()).order(ByteOrder.LITTLE_ENDIAN);
+            if (this.width == 8) {
+                bb.asLongBuffer().put(this.values, 0, this.size);
+            } else {
+                for (int i = 0; i < this.size; i++) {
+                    bb.putInt((int) this.values[i]);
+                }
+            }
+
+            buffer.writeBytes(bb.array());
+        }
+    }
+
+    /**
+     * Vector of Float32 and Float64 values.
+     */
+    public static final class DoubleVector extends ClickHouseColumnVector {
+        // number of bytes of each value in Native format
+        private final int width;
+
+        private double[] values;
+
+        DoubleVector(ClickHouseColumnInfo column, int width, int capacity) {
+            super(column, capacity);
+
+            this.width = width;
+            this.values = new double[capacity];
+        }
+
+        public void append(double value) {
+            int index = nextIndex();
+            if (index == this.values.length) {
+                this.values = Arrays.copyOf(this.values, grow(index));
+            }
+            this.values[index] = value;
+        }
+
+        public double get(int row) {
+            return this.values[row];
+        }
+
+        @Override
+        void appendEncoded(ClickHouseBuffer value) {
+            append(this.width == 4 ? value.readFloat32() : value.readFloat64());
+        }
+
+        @Override
+        int getValueLength() {
+            return this.width * this.size;
+        }
+
+        @Override
+        void writeValuesTo(ClickHouseBuffer buffer) {
+            ByteBuffer bb = ByteBuffer.allocate(getValueLength()).order(ByteOrder.LITTLE_ENDIAN);
+            if (this.width == 8) {
+                DoubleBuffer db = bb.asDoubleBuffer();
+                db.put(this.values, 0, this.size);
+            } else {
+                FloatBuffer fb = bb.asFloatBuffer();
+                for (int i = 0; i < this.size; i++) {
+                    fb.put((float) this.values[i]);
+                }
+            }
+
+            buffer.writeBytes(bb.array());
+        }
+    }
+
+    /**
+     * Vector of encoded values, for example, strings with length prefix, dates
+     * and decimals.
+     */
+    public static final class BytesVector extends ClickHouseColumnVector {
+        private final TimeZone timezone;
+
+        private int[] offsets;
+        private ClickHouseBuffer data;
+
+        BytesVector(ClickHouseColumnInfo column, TimeZone timezone, int capacity) {
+            super(column, capacity);
+
+            this.timezone = timezone;
+            this.offsets = new int[capacity];
+            this.data = ClickHouseBuffer.newInstance(capacity * 8, timezone);
+        }
+
+        /**
+         * Start a new value, which should be written into the returned buffer
+         * right away.
+         *
+         * @return buffer to write the value
+         */
+        public ClickHouseBuffer append() {
+            int index = nextIndex();
+            if (index == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, grow(index));
+            }
+            this.offsets[index] = this.data.length();
+
+            return this.data;
+        }
+
+        /**
+         * Get offset of the given row in encoded bytes.
+         *
+         * @param row zero-based row index
+         * @return offset in bytes
+         */
+        public int getOffset(int row) {
+            return this.offsets[row];
+        }
+
+        @Override
+        void appendEncoded(ClickHouseBuffer value) {
+            append().writeBytes(value);
+        }
+
+        @Override
+        int getValueLength() {
+            return this.data.length();
+        }
+
+        @Override
+        void writeValuesTo(ClickHouseBuffer buffer) {
+            buffer.writeBytes(this.data);
+        }
+
+        @Override
+        void clear() {
+            super.clear();
+
+            // most likely next block is as large as this one
+            this.data = ClickHouseBuffer.newInstance(Math.max(this.data.length(), MIN_CAPACITY), this.timezone);
+        }
+    }
+
+    /**
+     * Vector of a pre-defined value, for example, datasource column and custom
+     * columns.
+     */
+    static final class ConstantVector extends ClickHouseColumnVector {
+        private final ClickHouseBuffer value;
+
+        // no value array, but null bitmap of a nullable column still has to grow
+        private int capacity;
+
+        ConstantVector(ClickHouseColumnInfo column, ClickHouseBuffer value) {
+            super(column, MIN_CAPACITY);
+
+            this.value = Objects.requireNonNull(value);
+            this.capacity = MIN_CAPACITY;
+        }
+
+        void append() {
+            int index = nextIndex();
+            if (index == this.capacity) {
+                this.capacity = grow(index);
+            }
+        }
+
+        @Override
+        void appendEncoded(ClickHouseBuffer value) {
+            append();
+        }
+
+        @Override
+        int getValueLength() {
+            return this.value.length() * this.size;
+        }
+
+        @Override
+        void writeValuesTo(ClickHouseBuffer buffer) {
+            for (int i = 0; i < this.size; i++) {
+                buffer.writeBytes(this.value);
+            }
+        }
+    }
+
+    /**
+     * Create a vector suitable for the given column.
+     *
+     * @param column   column
+     * @param timezone timezone for encoding date and time
+     * @param capacity initial capacity
+     * @return column vector
+     */
+    public static ClickHouseColumnVector of(ClickHouseColumnInfo column, TimeZone timezone, int capacity) {
+        capacity = Math.max(capacity, MIN_CAPACITY);
+
+        final ClickHouseColumnVector vector;
+        switch (column.getType()) {
+            case Int8:
+            case UInt8:
+                vector = new IntVector(column, 1, capacity);
+                break;
+            case Int16:
+            case UInt16:
+                vector = new IntVector(column, 2, capacity);
+                break;
+            case Int32:
+                vector = new IntVector(column, 4, capacity);
+                break;
+            case UInt32:
+                vector = new LongVector(column, 4, capacity);
+                break;
+            case Int64:
+            case UInt64:
+                vector = new LongVector(column, 8, capacity);
+                break;
+            case Float32:
+                vector = new DoubleVector(column, 4, capacity);
+                break;
+            case Float64:
+                vector = new DoubleVector(column, 8, capacity);
+                break;
+            default:
+                vector = new BytesVector(column, timezone, capacity);
+                break;
+        }
+
+        return vector;
+    }
+
+    protected final ClickHouseColumnInfo column;
+
+    // one bit for each row, only for nullable column
+    private long[] nulls;
+
+    protected int size;
+
+    private DefaultValues defaultValues;
+    private Buffer defaultValue;
+
+    protected ClickHouseColumnVector(ClickHouseColumnInfo column, int capacity) {
+        this.column = Objects.requireNonNull(column);
+        this.nulls = column.isNullable() ? new long[(capacity + 63) >>> 6] : null;
+        this.size = 0;
+    }
+
+    // index of the new value, the value array must be extended when it's full
+    final int nextIndex() {
+        return this.size++;
+    }
+
+    final int grow(int capacity) {
+        int newCapacity = capacity + (capacity >> 1) + 1;
+        if (this.nulls != null) {
+            this.nulls = Arrays.copyOf(this.nulls, (newCapacity + 63) >>> 6);
+        }
+
+        return newCapacity;
+    }
+
+    // append value encoded in RowBinary(without null flag)
+    abstract void appendEncoded(ClickHouseBuffer value);
+
+    // number of bytes of all values in Native format, excluding null map
+    abstract int getValueLength();
+
+    abstract void writeValuesTo(ClickHouseBuffer buffer);
+
+    void clear() {
+        if (this.nulls != null) {
+            Arrays.fill(this.nulls, 0L);
+        }
+        this.size = 0;
+    }
+
+    public ClickHouseColumnInfo getColumn() {
+        return this.column;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isNull(int row) {
+        return this.nulls != null && (this.nulls[row >>> 6] & (1L << row)) != 0L;
+    }
+
+    /**
+     * Append a null value. For a non-nullable column, default value of the data
+     * type is appended instead, same as what a JDBC driver returns for null.
+     */
+    void appendNull() {
+        int row = this.size;
+        appendEncoded(ClickHouseBuffer.wrap(getDefaultValue(NULL_PLACEHOLDERS)));
+        // arrays have been extended as needed
+        if (this.nulls != null) {
+            this.nulls[row >>> 6] |= 1L << row;
+        }
+    }
+
+    /**
+     * Append default value of the column.
+     *
+     * @param defaultValues default values
+     */
+    public void appendDefault(DefaultValues defaultValues) {
+        appendEncoded(ClickHouseBuffer.wrap(getDefaultValue(Objects.requireNonNull(defaultValues))));
+    }
+
+    private Buffer getDefaultValue(DefaultValues values) {
+        if (this.defaultValues != values) {
+            this.defaultValue = ClickHouseBuffer.newInstance(16).writeDefaultValue(this.column, values).unwrap();
+            this.defaultValues = values;
+        }
+
+        return this.defaultValue;
+    }
+
+    /**
+     * Get total number of bytes in Native format.
+     *
+     * @return number of bytes
+     */
+    public int length() {
+        return getValueLength() + (this.nulls != null ? this.size : 0);
+    }
+
+    void writeNullMapTo(ClickHouseBuffer buffer) {
+        if (this.nulls == null) {
+            return;
+        }
+
+        byte[] bytes = new byte[this.size];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ((this.nulls[i >>> 6] >>> i) & 1L);
+        }
+
+        buffer.writeBytes(bytes);
+    }
+}
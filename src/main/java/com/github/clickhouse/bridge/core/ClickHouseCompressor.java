@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Streaming compressor of response, in either gzip or deflate format as
+ * defined in HTTP. Each block is flushed once compressed, so that the client
+ * can start decompressing without waiting for the whole response. It's not
+ * thread-safe, and is supposed to be used by the thread writing the response,
+ * so that compression never happens on event loop.
+ */
+public class ClickHouseCompressor {
+    public static final String ENCODING_GZIP = "gzip";
+    public static final String ENCODING_DEFLATE = "deflate";
+
+    public static final int DEFAULT_LEVEL = 1;
+    public static final int MAX_LEVEL = Deflater.BEST_COMPRESSION;
+
+    private static final int GZIP_MAGIC = 0x8b1f;
+    private static final byte[] GZIP_HEADER = new byte[] { (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8),
+            Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final String encoding;
+    private final Deflater deflater;
+    // only for gzip
+    private final CRC32 crc;
+
+    private byte[] input = new byte[0];
+    private byte[] output = new byte[4096];
+    private boolean started = false;
+    private boolean closed = false;
+
+    /**
+     * Choose content encoding according to value of {@code Accept-Encoding}
+     * header. Quality values are not taken into account, except {@code q=0}.
+     *
+     * @param acceptEncoding value of {@code Accept-Encoding} header
+     * @return supported encoding, or null if none
+     */
+    public static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return null;
+        }
+
+        String deflate = null;
+        for (String token : ClickHouseUtils.splitByChar(acceptEncoding, ',')) {
+            int index = token.indexOf(';');
+            String name = (index == -1 ? token : token.substring(0, index)).trim();
+            if (index != -1 && token.substring(index + 1).replace(" ", "").matches("q=0(\\.0*)?")) {
+                continue;
+            }
+
+            if (ENCODING_GZIP.equalsIgnoreCase(name)) {
+                return ENCODING_GZIP;
+            } else if (ENCODING_DEFLATE.equalsIgnoreCase(name)) {
+                deflate = ENCODING_DEFLATE;
+            }
+        }
+
+        return deflate;
+    }
+
+    public ClickHouseCompressor(String encoding, int level) {
+        if (ENCODING_GZIP.equals(encoding)) {
+            this.deflater = new Deflater(level, true);
+            this.crc = new CRC32();
+        } else if (ENCODING_DEFLATE.equals(encoding)) {
+            this.deflater = new Deflater(level, false);
+            this.crc = null;
+        } else {
+            throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+        }
+
+        this.encoding = encoding;
+    }
+
+    public String getEncoding() {
+        return this.encoding;
+    }
+
+    private Buffer deflate(Buffer out, int flush) {
+        int len;
+        while ((len = this.deflater.deflate(this.output, 0, this.output.length, flush)) > 0) {
+            out.appendBytes(this.output, 0, len);
+            // output buffer was not filled up, so everything has been flushed
+            if (len < this.output.length) {
+                break;
+            }
+        }
+
+        return out;
+    }
+
+    private Buffer newBuffer(int sizeHint) {
+        Buffer out = Buffer.buffer(sizeHint);
+        if (!this.started) {
+            this.started = true;
+            if (this.crc != null) {
+                out.appendBytes(GZIP_HEADER);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Compress a block and flush.
+     *
+     * @param block uncompressed block
+     * @return compressed block
+     */
+    public Buffer compress(Buffer block) {
+        int length = block.length();
+        if (this.input.length < length) {
+            this.input = new byte[length];
+        }
+        block.getBytes(0, length, this.input);
+
+        if (this.crc != null) {
+            this.crc.update(this.input, 0, length);
+        }
+
+        this.deflater.setInput(this.input, 0, length);
+        return deflate(newBuffer(length / 2 + 16), Deflater.SYNC_FLUSH);
+    }
+
+    /**
+     * Release native resources. It's safe to call it more than once, but the
+     * compressor cannot be used afterwards.
+     */
+    public void close() {
+        if (!this.closed) {
+            this.closed = true;
+            this.deflater.end();
+        }
+    }
+
+    /**
+     * Complete compression, and release native resources afterwards.
+     *
+     * @return remaining compressed bytes, including trailer if any
+     */
+    public Buffer finish() {
+        Buffer out = newBuffer(64);
+
+        this.deflater.finish();
+        while (!this.deflater.finished()) {
+            int len = this.deflater.deflate(this.output, 0, this.output.length);
+            out.appendBytes(this.output, 0, len);
+        }
+
+        if (this.crc != null) {
+            out.appendIntLE((int) this.crc.getValue());
+            out.appendIntLE((int) this.deflater.getBytesRead());
+        }
+
+        close();
+        return out;
+    }
+}
@@ -22,17 +22,31 @@ package com.github.clickhouse.bridge.core;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.TimeZone;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
@@ -46,6 +60,23 @@ public class ClickHouseDataSource implements Closeable {
     protected static final String CONF_CACHE = "cache";
     protected static final String CONF_SIZE = "size";
     protected static final String CONF_EXPIRATION = "expiration";
+    protected static final String CONF_REFRESH = "refresh";
+    protected static final String CONF_FILE = "file";
+    protected static final String CONF_QUERY = "query";
+    protected static final String CONF_RESULTS = "results";
+    protected static final String CONF_TTL = "ttl";
+    protected static final String CONF_DIRECTORY = "directory";
+    protected static final String CONF_DISK_SIZE = "diskSize";
+    protected static final String CONF_SPILL_SIZE = "spillSize";
+
+    protected static final String CONF_EXECUTOR = "executor";
+    protected static final String CONF_QUEUE = "queue";
+
+    protected static final String CONF_COALESCING = "coalescing";
+    protected static final String CONF_ENABLED = "enabled";
+    protected static final String CONF_MAX_BYTES = "maxBytes";
+
+    public static final int DEFAULT_WORKER_QUEUE_SIZE = 100;
 
     protected static final String CONF_COLUMNS = "columns";
     protected static final String CONF_DEFAULTS = "defaults";
@@ -61,7 +92,44 @@ public class ClickHouseDataSource implements Closeable {
 
     private static final String QUERY_FILE_EXT = ".query";
 
-    private final Cache<String, ClickHouseColumnList> columnsCache;
+    // minimum interval between saving columns cache into file
+    private static final long COLUMNS_CACHE_SAVE_INTERVAL_MS = 60000L;
+
+    static final class ColumnsCacheKey {
+        private final String schema;
+        private final String query;
+
+        ColumnsCacheKey(String schema, String query) {
+            this.schema = schema == null ? "" : schema;
+            this.query = Objects.requireNonNull(query);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.schema.hashCode() + this.query.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            } else if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+
+            ColumnsCacheKey other = (ColumnsCacheKey) obj;
+            return this.schema.equals(other.schema) && this.query.equals(other.query);
+        }
+    }
+
+    private final LoadingCache<ColumnsCacheKey, ClickHouseColumnList> columnsCache;
+    // optional file for persisting columns cache across restarts
+    private final Path columnsCacheFile;
+    private final Object columnsCacheFileLock = new Object();
+    private volatile long columnsCacheSaveTime = 0L;
+    // inferring columns blocks, so don't refresh in common pool; null when
+    // columns are not refreshed in background
+    private final ExecutorService columnsRefresher;
 
     private final String id;
 
@@ -72,6 +140,26 @@ public class ClickHouseDataSource implements Closeable {
     private final DefaultValues defaultValues;
     private final QueryParameters queryParameters;
 
+    private final DataSourceMetrics metrics;
+
+    // negative pool size means using shared worker pool
+    private final int workerPoolSize;
+    private final int workerQueueSize;
+
+    // null when identical queries are not coalesced
+    private final ClickHouseQueryCoalescer coalescer;
+    // null when query results are not cached
+    private final ClickHouseResultCache resultCache;
+
+    private ClickHouseWorkerExecutor workerExecutor;
+    private boolean closed = false;
+
+    // number of requests using this datasource
+    private final AtomicInteger leases = new AtomicInteger(0);
+    private volatile boolean retired = false;
+    // completed when the datasource is retired and no longer in use
+    private final CompletableFuture<Void> drained = new CompletableFuture<>();
+
     public static void writeDebugInfo(String dsId, String dsType, ClickHouseColumnList metaData, String query,
             QueryParameters parameters, ClickHouseResponseWriter writer) {
         if (metaData == null) {
@@ -110,11 +198,19 @@ public class ClickHouseDataSource implements Closeable {
 
         int cacheSize = 100;
         int cacheExpireMinute = 5;
+        int cacheRefreshMinute = 2;
+        String cacheFile = null;
+        ClickHouseResultCache cache = null;
 
         if (config == null) {
             this.timezone = null;
             this.defaultValues = new DefaultValues();
             this.queryParameters = new QueryParameters();
+
+            this.workerPoolSize = -1;
+            this.workerQueueSize = DEFAULT_WORKER_QUEUE_SIZE;
+
+            this.coalescer = null;
         } else {
             String tz = config.getString(CONF_TIMEZONE);
             this.timezone = tz == null ? null : TimeZone.getTimeZone(tz);
@@ -127,7 +223,17 @@ public class ClickHouseDataSource implements Closeable {
                         JsonObject json = (JsonObject) entry.getValue();
                         cacheSize = json.getInteger(CONF_SIZE, cacheSize);
                         cacheExpireMinute = json.getInteger(CONF_EXPIRATION, cacheExpireMinute);
-                        break;
+                        cacheRefreshMinute = json.getInteger(CONF_REFRESH, cacheRefreshMinute);
+                        cacheFile = json.getString(CONF_FILE);
+                    } else if (CONF_RESULTS.equals(cacheName) && entry.getValue() instanceof JsonObject) {
+                        JsonObject json = (JsonObject) entry.getValue();
+                        String dir = json.getString(CONF_DIRECTORY);
+                        cache = new ClickHouseResultCache(
+                                json.getLong(CONF_SIZE, ClickHouseResultCache.DEFAULT_MAX_BYTES),
+                                json.getLong(CONF_TTL, ClickHouseResultCache.DEFAULT_TTL),
+                                dir == null || dir.isEmpty() ? null : Paths.get(dir),
+                                json.getLong(CONF_DISK_SIZE, ClickHouseResultCache.DEFAULT_DISK_BYTES),
+                                json.getLong(CONF_SPILL_SIZE, ClickHouseResultCache.DEFAULT_SPILL_BYTES));
                     }
                 }
             }
@@ -141,29 +247,134 @@ public class ClickHouseDataSource implements Closeable {
             }
             this.defaultValues = new DefaultValues(config.getJsonObject(CONF_DEFAULTS));
             this.queryParameters = new QueryParameters(config.getJsonObject(CONF_PARAMETERS));
+
+            JsonObject executorConfig = config.getJsonObject(CONF_EXECUTOR);
+            if (executorConfig != null) {
+                this.workerPoolSize = executorConfig.getInteger(CONF_SIZE, 0);
+                this.workerQueueSize = executorConfig.getInteger(CONF_QUEUE, DEFAULT_WORKER_QUEUE_SIZE);
+            } else {
+                this.workerPoolSize = 0;
+                this.workerQueueSize = DEFAULT_WORKER_QUEUE_SIZE;
+            }
+
+            JsonObject coalescingConfig = config.getJsonObject(CONF_COALESCING);
+            this.coalescer = coalescingConfig != null && coalescingConfig.getBoolean(CONF_ENABLED, false)
+                    ? new ClickHouseQueryCoalescer(
+                            coalescingConfig.getInteger(CONF_MAX_BYTES, ClickHouseQueryCoalescer.DEFAULT_MAX_BYTES))
+                    : null;
         }
 
-        this.columnsCache = Caffeine.newBuilder().maximumSize(cacheSize)
-                .expireAfterAccess(cacheExpireMinute, TimeUnit.MINUTES).build();
+        this.resultCache = cache;
+        this.metrics = new DataSourceMetrics(config == null ? null : id);
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().maximumSize(cacheSize)
+                .expireAfterAccess(cacheExpireMinute, TimeUnit.MINUTES);
+        if (cacheRefreshMinute > 0) {
+            // connection string of ad-hoc datasource may contain credentials
+            String threadName = "columns-refresher-" + (config == null ? DataSourceMetrics.ADHOC_DATASOURCE : id);
+            ThreadPoolExecutor refresher = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread thread = new Thread(r, threadName);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            refresher.allowCoreThreadTimeOut(true);
+            this.columnsRefresher = refresher;
+
+            // stale entry will be returned while reloading in background
+            builder.refreshAfterWrite(cacheRefreshMinute, TimeUnit.MINUTES).executor(refresher);
+        } else {
+            this.columnsRefresher = null;
+        }
+        this.columnsCache = builder.build(this::loadColumns);
+
+        this.columnsCacheFile = cacheFile == null || cacheFile.isEmpty() ? null : Paths.get(cacheFile);
+        this.loadColumnsCache();
     }
 
     public final String getId() {
         return this.id;
     }
 
+    public final DataSourceMetrics getMetrics() {
+        return this.metrics;
+    }
+
     public final TimeZone getTimeZone() {
         return this.timezone;
     }
 
+    private ClickHouseColumnList loadColumns(ColumnsCacheKey key) {
+        long startTime = System.nanoTime();
+        ClickHouseColumnList columns;
+        try {
+            columns = inferColumns(key.schema, loadSavedQueryAsNeeded(key.query));
+        } finally {
+            this.metrics.getInferColumnsTime().record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+
+        // rewriting the whole file on every cache miss is wasteful, so save at most
+        // once per interval, and the rest on close
+        long now = System.currentTimeMillis();
+        if (this.columnsCacheFile != null && now - this.columnsCacheSaveTime >= COLUMNS_CACHE_SAVE_INTERVAL_MS) {
+            this.columnsCacheSaveTime = now;
+            Map<ColumnsCacheKey, ClickHouseColumnList> entries = new HashMap<>(this.columnsCache.asMap());
+            entries.put(key, columns);
+            saveColumnsCache(entries);
+        }
+
+        return columns;
+    }
+
+    private void loadColumnsCache() {
+        if (this.columnsCacheFile == null || !Files.exists(this.columnsCacheFile)) {
+            return;
+        }
+
+        try {
+            JsonArray array = new JsonArray(
+                    new String(Files.readAllBytes(this.columnsCacheFile), StandardCharsets.UTF_8));
+            for (Object obj : array) {
+                if (obj instanceof JsonObject) {
+                    JsonObject entry = (JsonObject) obj;
+                    this.columnsCache.put(new ColumnsCacheKey(entry.getString(CONF_SCHEMA), entry.getString(CONF_QUERY)),
+                            ClickHouseColumnList.fromString(entry.getString(CONF_COLUMNS)));
+                }
+            }
+
+            log.info("Loaded {} columns cache entries of datasource [{}] from [{}]", array.size(), this.id,
+                    this.columnsCacheFile);
+        } catch (Exception e) {
+            log.warn("Failed to load columns cache from [" + this.columnsCacheFile + "]", e);
+        }
+    }
+
+    private void saveColumnsCache(Map<ColumnsCacheKey, ClickHouseColumnList> entries) {
+        JsonArray array = new JsonArray();
+        for (Entry<ColumnsCacheKey, ClickHouseColumnList> entry : entries.entrySet()) {
+            ColumnsCacheKey key = entry.getKey();
+            array.add(new JsonObject().put(CONF_SCHEMA, key.schema).put(CONF_QUERY, key.query).put(CONF_COLUMNS,
+                    entry.getValue().toString()));
+        }
+
+        synchronized (this.columnsCacheFileLock) {
+            try {
+                // write to a temporary file first, so that the cache file is never corrupted
+                Path tmpFile = this.columnsCacheFile.resolveSibling(this.columnsCacheFile.getFileName() + ".tmp");
+                Files.write(tmpFile, array.encode().getBytes(StandardCharsets.UTF_8));
+                Files.move(tmpFile, this.columnsCacheFile, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } catch (Exception e) {
+                log.warn("Failed to save columns cache to [" + this.columnsCacheFile + "]", e);
+            }
+        }
+    }
+
     public final ClickHouseColumnList getColumns(String schema, String query) {
         final ClickHouseColumnList columns; // = ClickHouseColumnList.DEFAULT_COLUMNS_INFO;
 
-        final ClickHouseDataSource self = this;
-
         try {
-            columns = columnsCache.get(query, k -> {
-                return inferColumns(schema, self.loadSavedQueryAsNeeded(k));
-            });
+            columns = columnsCache.get(new ColumnsCacheKey(schema, query));
         } catch (Exception e) {
             throw new IllegalStateException("Failed to retrieve columns definition", e);
         }
@@ -223,7 +434,54 @@ public class ClickHouseDataSource implements Closeable {
             }
         }
 
-        executeQuery(loadSavedQueryAsNeeded(query.getQuery()), requestColumns, params, writer);
+        executeSharedQuery(loadSavedQueryAsNeeded(query.getQuery()), requestColumns, params,
+                query.getResultCacheTtl(), writer);
+    }
+
+    /**
+     * Execute a query, or share result with an identical one being executed when
+     * coalescing is enabled, or write cached result when result cache is enabled.
+     *
+     * @param query      query to execute
+     * @param columns    requested columns
+     * @param parameters query parameters
+     * @param writer     response writer
+     */
+    public final void executeSharedQuery(String query, ClickHouseColumnList columns, QueryParameters parameters,
+            ClickHouseResponseWriter writer) {
+        executeSharedQuery(query, columns, parameters, -1L, writer);
+    }
+
+    private void executeSharedQuery(String query, ClickHouseColumnList columns, QueryParameters parameters,
+            long resultCacheTtl, ClickHouseResponseWriter writer) {
+        boolean cacheable = this.resultCache != null && resultCacheTtl != 0L;
+        if (this.coalescer == null && !cacheable) {
+            executeQuery(query, columns, parameters, writer);
+            return;
+        }
+
+        // RowBinary and Native results of the same query are not interchangeable
+        final String key = new StringBuilder().append(this.id).append('\n').append(query).append('\n')
+                .append(columns).append('\n').append(parameters.toQueryString()).append('\n')
+                .append(writer.getOptions().getOutputFormat()).toString();
+
+        Handler<ClickHouseResponseWriter> execution = w -> executeQuery(query, columns, parameters, w);
+        if (cacheable) {
+            final Handler<ClickHouseResponseWriter> uncached = execution;
+            execution = w -> {
+                if (this.resultCache.execute(key, resultCacheTtl, w, uncached)) {
+                    this.metrics.getResultCacheHits().increment();
+                } else {
+                    this.metrics.getResultCacheMisses().increment();
+                }
+            };
+        }
+
+        if (this.coalescer == null) {
+            execution.handle(writer);
+        } else {
+            this.coalescer.execute(key, writer, execution);
+        }
     }
 
     public final String loadSavedQueryAsNeeded(String normalizedQuery) {
@@ -236,9 +494,113 @@ public class ClickHouseDataSource implements Closeable {
         return normalizedQuery;
     }
 
+    /**
+     * Get default size of the dedicated worker pool, when it's not specified in
+     * configuration.
+     *
+     * @return default pool size, zero or negative number means using shared
+     *         worker pool
+     */
+    protected int getDefaultWorkerPoolSize() {
+        return 0;
+    }
+
+    /**
+     * Get dedicated worker executor of this datasource, which will be created on
+     * first call.
+     *
+     * @param vertx Vert.x instance
+     * @return dedicated worker executor, or null if shared worker pool should be
+     *         used instead
+     */
+    public final synchronized ClickHouseWorkerExecutor getWorkerExecutor(Vertx vertx) {
+        if (this.workerExecutor == null && !this.closed && this.workerPoolSize >= 0) {
+            int poolSize = this.workerPoolSize > 0 ? this.workerPoolSize : getDefaultWorkerPoolSize();
+            if (poolSize > 0) {
+                this.workerExecutor = new ClickHouseWorkerExecutor(Objects.requireNonNull(vertx),
+                        "datasource-" + this.id, poolSize, this.workerQueueSize);
+            }
+        }
+
+        return this.workerExecutor;
+    }
+
+    /**
+     * Try to lease the datasource for a request. Lease should be released by
+     * calling {@link #release()} once the request is completed.
+     *
+     * @return false if the datasource has been retired and should not be used
+     */
+    public final boolean acquire() {
+        this.leases.incrementAndGet();
+
+        if (this.retired) {
+            release();
+            return false;
+        }
+
+        return true;
+    }
+
+    public final void release() {
+        if (this.leases.decrementAndGet() <= 0 && this.retired) {
+            this.drained.complete(null);
+        }
+    }
+
+    public final int getLeases() {
+        return Math.max(this.leases.get(), 0);
+    }
+
+    /**
+     * Stop leasing the datasource to new requests.
+     *
+     * @return future which will be completed once all leases are released
+     */
+    public final CompletableFuture<Void> retire() {
+        this.retired = true;
+
+        if (this.leases.get() <= 0) {
+            this.drained.complete(null);
+        }
+
+        return this.drained;
+    }
+
+    /**
+     * Prepare the datasource before it's being used by requests, for example
+     * establish minimum number of connections. It's called only once, outside of
+     * event loop.
+     */
+    public void warmUp() {
+    }
+
     @Override
     public void close() throws IOException {
         log.info("Closing datasource[id={}, instance={}]", this.id, this);
+
+        final ClickHouseWorkerExecutor executor;
+        synchronized (this) {
+            this.closed = true;
+            executor = this.workerExecutor;
+            this.workerExecutor = null;
+        }
+
+        if (executor != null) {
+            executor.close();
+        }
+
+        if (this.columnsRefresher != null) {
+            this.columnsRefresher.shutdown();
+        }
+
+        if (this.columnsCacheFile != null) {
+            saveColumnsCache(this.columnsCache.asMap());
+        }
+
+        if (this.resultCache != null) {
+            this.resultCache.invalidateAll();
+        }
     }
 
     public void executeQuery(String query, ClickHouseColumnList columns, QueryParameters parameters,
@@ -253,6 +615,12 @@ public class ClickHouseDataSource implements Closeable {
         log.info("Discard mutation: schema=[{}], table=[{}]", schema, table);
     }
 
+    public void executeUpdate(String schema, String table, ClickHouseColumnList columns, QueryParameters parameters,
+            ClickHouseRequestReader reader) {
+        // read everything into memory by default
+        executeUpdate(schema, table, columns, parameters, Objects.requireNonNull(reader).readAll());
+    }
+
     public String getQuoteIdentifier() {
         return DEFAULT_QUOTE_IDENTIFIER;
     }
@@ -30,6 +30,9 @@ public class ClickHouseNamedQuery {
     private static final String CONF_QUERY = "query";
     private static final String CONF_COLUMNS = "columns";
     private static final String CONF_PARAMETERS = "parameters";
+    private static final String CONF_CACHE = "cache";
+    private static final String CONF_RESULTS = "results";
+    private static final String CONF_TTL = "ttl";
 
     private final String id;
     private final String digest;
@@ -38,6 +41,9 @@ public class ClickHouseNamedQuery {
 
     private final QueryParameters parameters;
 
+    // time-to-live of cached result in seconds, negative means datasource default
+    private final long resultCacheTtl;
+
     public ClickHouseNamedQuery(String id, JsonObject config) {
         Objects.requireNonNull(config);
 
@@ -50,6 +56,10 @@ public class ClickHouseNamedQuery {
         this.query = namedQuery;
         this.columns = ClickHouseColumnList.fromJson(config.getJsonArray(CONF_COLUMNS));
         this.parameters = new QueryParameters(config.getJsonObject(CONF_PARAMETERS));
+
+        JsonObject cacheConfig = config.getJsonObject(CONF_CACHE);
+        JsonObject resultsConfig = cacheConfig == null ? null : cacheConfig.getJsonObject(CONF_RESULTS);
+        this.resultCacheTtl = resultsConfig == null ? -1L : resultsConfig.getLong(CONF_TTL, -1L);
     }
 
     public String getId() {
@@ -72,6 +82,10 @@ public class ClickHouseNamedQuery {
         return this.parameters;
     }
 
+    public long getResultCacheTtl() {
+        return this.resultCacheTtl;
+    }
+
     public final boolean isDifferentFrom(JsonObject newConfig) {
         String newDigest = ClickHouseUtils.digest(newConfig == null ? null : newConfig.encode());
         boolean isDifferent = this.digest == null || this.digest.length() == 0 || !this.digest.equals(newDigest);
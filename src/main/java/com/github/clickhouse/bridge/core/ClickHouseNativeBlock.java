@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.util.Objects;
+import java.util.TimeZone;
+
+/**
+ * A block in ClickHouse Native format. Unlike RowBinary, values are
+ * accumulated column by column, each column in its own
+ * {@link ClickHouseColumnVector}, and null flags of a nullable column are kept
+ * separately. Writing out a block is merely a small header followed by
+ * concatenated columns.
+ */
+public final class ClickHouseNativeBlock {
+    private static final int INITIAL_ROWS = 1024;
+
+    private final ClickHouseColumnInfo[] columns;
+    private final String[] typeNames;
+    private final TimeZone timezone;
+
+    private final ClickHouseColumnVector[] vectors;
+
+    private int rows;
+
+    public ClickHouseNativeBlock(ClickHouseColumnInfo[] columns, TimeZone timezone) {
+        this.columns = Objects.requireNonNull(columns);
+        this.timezone = timezone;
+
+        int size = columns.length;
+        this.typeNames = new String[size];
+        this.vectors = new ClickHouseColumnVector[size];
+        for (int i = 0; i < size; i++) {
+            this.typeNames[i] = columns[i].getTypeName();
+            this.vectors[i] = ClickHouseColumnVector.of(columns[i], timezone, INITIAL_ROWS);
+        }
+
+        this.rows = 0;
+    }
+
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    public int getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Get vector for appending value of the given column in current row.
+     *
+     * @param index zero-based column index
+     * @return vector of the column
+     */
+    public ClickHouseColumnVector getVector(int index) {
+        return this.vectors[index];
+    }
+
+    /**
+     * Append null value of the given column in current row.
+     *
+     * @param index zero-based column index
+     */
+    public void appendNull(int index) {
+        this.vectors[index].appendNull();
+    }
+
+    // same value for all rows, so it's encoded only once
+    private ClickHouseColumnVector.ConstantVector getConstantVector(int index, ClickHouseBuffer value) {
+        ClickHouseColumnVector vector = this.vectors[index];
+        if (!(vector instanceof ClickHouseColumnVector.ConstantVector)) {
+            if (vector.size() > 0) {
+                throw new IllegalStateException(
+                        "Column [" + this.columns[index].getName() + "] already has non-constant values");
+            }
+
+            this.vectors[index] = vector = new ClickHouseColumnVector.ConstantVector(this.columns[index], value);
+        }
+
+        return (ClickHouseColumnVector.ConstantVector) vector;
+    }
+
+    /**
+     * Write pre-defined value of the given column in current row.
+     *
+     * @param index  zero-based column index
+     * @param column column with pre-defined value
+     */
+    public void writeValue(int index, ClickHouseColumnInfo column) {
+        ClickHouseColumnVector vector = this.vectors[index];
+        if (vector instanceof ClickHouseColumnVector.ConstantVector) {
+            ((ClickHouseColumnVector.ConstantVector) vector).append();
+        } else {
+            ClickHouseBuffer value = ClickHouseBuffer.newInstance(16, this.timezone);
+            column.value.writeValueTo(value, column.getPrecision(), column.getScale(), column.getTimeZone());
+            getConstantVector(index, value).append();
+        }
+    }
+
+    /**
+     * Write a constant string of the given column in current row, for example,
+     * the datasource column.
+     *
+     * @param index zero-based column index
+     * @param value non-null string
+     */
+    public void writeValue(int index, String value) {
+        ClickHouseColumnVector vector = this.vectors[index];
+        if (vector instanceof ClickHouseColumnVector.ConstantVector) {
+            ((ClickHouseColumnVector.ConstantVector) vector).append();
+        } else {
+            getConstantVector(index, ClickHouseBuffer.newInstance(value.length() + 1).writeString(value)).append();
+        }
+    }
+
+    public void endRow() {
+        this.rows++;
+    }
+
+    /**
+     * Get accumulated size of all columns in bytes.
+     *
+     * @return size in bytes
+     */
+    public int length() {
+        int length = 0;
+
+        for (ClickHouseColumnVector vector : this.vectors) {
+            length += vector.length();
+        }
+
+        return length;
+    }
+
+    /**
+     * Write current block into a new buffer, and start a new block.
+     *
+     * @return buffer in Native format
+     */
+    public ClickHouseBuffer flush() {
+        ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(length() + this.columns.length * 32);
+
+        buffer.writeUnsignedLeb128(this.columns.length).writeUnsignedLeb128(this.rows);
+        for (int i = 0; i < this.columns.length; i++) {
+            ClickHouseColumnVector vector = this.vectors[i];
+            if (vector.size() != this.rows) {
+                throw new IllegalStateException("Column [" + this.columns[i].getName() + "] has " + vector.size()
+                        + " values but block has " + this.rows + " rows");
+            }
+
+            buffer.writeString(this.columns[i].getName()).writeString(this.typeNames[i]);
+            vector.writeNullMapTo(buffer);
+            vector.writeValuesTo(buffer);
+            vector.clear();
+        }
+
+        this.rows = 0;
+
+        return buffer;
+    }
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Shares result of a query with identical requests arriving while it's still
+ * running, so that concurrent requests(e.g. from all shards of a distributed
+ * table) cost only one execution. Result of the first request is kept in
+ * memory until it completes, and then replayed to the others. When it's too
+ * large, or the query failed, each waiting request executes the query on its
+ * own.
+ */
+public class ClickHouseQueryCoalescer {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClickHouseQueryCoalescer.class);
+
+    public static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    // in case response was closed when waiting for the shared result
+    private static final long WAIT_CHECK_INTERVAL = 1000L;
+
+    static final class SharedResult {
+        // null when the result cannot be shared
+        final CompletableFuture<List<Buffer>> future = new CompletableFuture<>();
+
+        final List<Buffer> buffers = new ArrayList<>();
+        long bytes = 0L;
+    }
+
+    private final int maxBytes;
+    private final ConcurrentMap<String, SharedResult> inflight = new ConcurrentHashMap<>();
+
+    public ClickHouseQueryCoalescer(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public int getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    int getInflightQueries() {
+        return this.inflight.size();
+    }
+
+    private static List<Buffer> await(SharedResult result, ClickHouseResponseWriter writer) {
+        while (true) {
+            if (writer.isCancelled()) {
+                throw new IllegalStateException("Query was cancelled");
+            }
+
+            try {
+                return result.future.get(WAIT_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // check again
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for shared query result", e);
+            } catch (ExecutionException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Execute a query, or wait for an identical one and write its result.
+     *
+     * @param key       key of the query, requests with same key must produce
+     *                  exactly the same response
+     * @param writer    response writer
+     * @param execution handler to execute the query and write result into the
+     *                  given writer
+     */
+    public void execute(String key, ClickHouseResponseWriter writer, Handler<ClickHouseResponseWriter> execution) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(writer);
+        Objects.requireNonNull(execution);
+
+        final SharedResult result = new SharedResult();
+        SharedResult existing = this.inflight.putIfAbsent(key, result);
+        if (existing != null) {
+            log.debug("Waiting for result of identical query...");
+            List<Buffer> buffers = await(existing, writer);
+            if (buffers != null) {
+                for (Buffer buffer : buffers) {
+                    writer.write(ClickHouseBuffer.wrap(buffer.copy()));
+                }
+                return;
+            }
+
+            log.debug("Shared query result is not available, executing the query again...");
+            execution.handle(writer);
+            return;
+        }
+
+        Handler<Buffer> tee = buffer -> {
+            if (result.future.isDone()) { // too large to share
+                return;
+            }
+
+            result.bytes += buffer.length();
+            if (result.bytes > this.maxBytes) {
+                log.debug("Query result exceeds {} bytes and will not be shared", this.maxBytes);
+                this.inflight.remove(key, result);
+                result.buffers.clear();
+                result.future.complete(null);
+            } else {
+                result.buffers.add(buffer);
+            }
+        };
+
+        boolean succeeded = false;
+        long startBytes = writer.getWrittenBytes();
+        writer.addTeeHandler(tee);
+        try {
+            execution.handle(writer);
+            // result sent from file cannot be shared
+            succeeded = writer.getWrittenBytes() - startBytes == result.bytes;
+        } finally {
+            writer.removeTeeHandler(tee);
+            this.inflight.remove(key, result);
+            result.future.complete(succeeded ? result.buffers : null);
+        }
+    }
+}
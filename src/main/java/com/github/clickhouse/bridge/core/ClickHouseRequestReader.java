@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.util.LinkedList;
+import java.util.Objects;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerRequest;
+
+/**
+ * Reads request body incrementally. Request will be paused when there are too
+ * many bytes queued, and resumed once they're consumed by worker thread.
+ */
+public class ClickHouseRequestReader {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClickHouseRequestReader.class);
+
+    // in case we missed end/exception event
+    private static final long READ_CHECK_INTERVAL = 1000L;
+
+    private final HttpServerRequest request;
+    private final Context context;
+    private final int maxQueuedBytes;
+
+    private final LinkedList<Buffer> queue = new LinkedList<>();
+
+    private int queuedBytes = 0;
+    private boolean paused = false;
+    private boolean ended = false;
+    private boolean discarded = false;
+    private Throwable error = null;
+
+    /**
+     * Create a reader for the given request. This must be called on event loop,
+     * before any data is received.
+     *
+     * @param request request to read from
+     * @param options stream options
+     */
+    public ClickHouseRequestReader(HttpServerRequest request, StreamOptions options) {
+        this.request = Objects.requireNonNull(request);
+        this.context = Objects.requireNonNull(Vertx.currentContext());
+        this.maxQueuedBytes = Math.max(1, Objects.requireNonNull(options).getMaxBlockBytes());
+
+        this.request.handler(this::onData).endHandler(v -> this.onEnd()).exceptionHandler(this::onError);
+    }
+
+    // below handlers are called on event loop
+    private synchronized void onData(Buffer chunk) {
+        if (this.discarded) {
+            return;
+        }
+
+        this.queue.add(chunk);
+        this.queuedBytes += chunk.length();
+
+        if (!this.paused && this.queuedBytes >= this.maxQueuedBytes) {
+            log.trace("Pause request as there are {} bytes pending", this.queuedBytes);
+            this.paused = true;
+            this.request.pause();
+        }
+
+        this.notifyAll();
+    }
+
+    private synchronized void onEnd() {
+        this.ended = true;
+        this.notifyAll();
+    }
+
+    private synchronized void onError(Throwable t) {
+        log.warn("Failed to read request", t);
+
+        this.error = t;
+        this.notifyAll();
+    }
+
+    private synchronized void resumeIfNeeded() {
+        if (this.paused && !this.discarded && this.queuedBytes < this.maxQueuedBytes) {
+            log.trace("Resume request as there are {} bytes pending", this.queuedBytes);
+            this.paused = false;
+            this.request.resume();
+        }
+    }
+
+    private synchronized LinkedList<Buffer> poll() {
+        if (this.queue.isEmpty() && !this.ended) {
+            if (this.error == null) {
+                try {
+                    this.wait(READ_CHECK_INTERVAL);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while reading request", e);
+                }
+            }
+
+            if (this.error != null) {
+                throw new IllegalStateException("Failed to read request", this.error);
+            } else if (this.queue.isEmpty() && !this.ended) {
+                return null;
+            }
+        }
+
+        LinkedList<Buffer> chunks = new LinkedList<>(this.queue);
+        this.queue.clear();
+        this.queuedBytes = 0;
+
+        if (this.paused) {
+            this.context.runOnContext(v -> this.resumeIfNeeded());
+        }
+
+        return chunks;
+    }
+
+    private LinkedList<Buffer> take() {
+        LinkedList<Buffer> chunks;
+
+        // never call request/response methods while holding the lock, as they're
+        // synchronized on the connection, which could be locked by event loop when
+        // calling our handlers
+        while ((chunks = poll()) == null) {
+            if (this.request.response().closed()) {
+                throw new IllegalStateException("Connection was closed");
+            }
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Read next part of the request body. Unread bytes in {@code previous}, if
+     * any, will be put in front of the returned buffer. This will block current
+     * thread until there's more data or the request ended.
+     *
+     * @param previous previously returned buffer, could be null
+     * @return next part of the request body, or null when there's no more data
+     */
+    public ClickHouseBuffer read(ClickHouseBuffer previous) {
+        int remaining = previous == null ? 0 : previous.remaining();
+
+        LinkedList<Buffer> chunks = take();
+        if (chunks.isEmpty()) { // end of request
+            if (remaining > 0) {
+                throw new IllegalStateException(
+                        "Incomplete row found at the end of request, " + remaining + " bytes left");
+            }
+
+            return null;
+        }
+
+        final Buffer buffer;
+        if (remaining == 0 && chunks.size() == 1) {
+            buffer = chunks.getFirst();
+        } else {
+            int length = remaining;
+            for (Buffer chunk : chunks) {
+                length += chunk.length();
+            }
+
+            buffer = Buffer.buffer(length);
+            if (remaining > 0) {
+                buffer.appendBuffer(previous.buffer, previous.position, remaining);
+            }
+            for (Buffer chunk : chunks) {
+                buffer.appendBuffer(chunk);
+            }
+        }
+
+        return ClickHouseBuffer.wrap(buffer, previous == null ? null : previous.timezone);
+    }
+
+    /**
+     * Drop queued and remaining data of the request, for example when worker
+     * failed half way. Otherwise the request could stay paused, and the
+     * connection hangs until idle timeout. This must be called on event loop,
+     * after the worker thread stopped reading.
+     */
+    public void discard() {
+        boolean resume;
+        synchronized (this) {
+            this.discarded = true;
+            this.queue.clear();
+            this.queuedBytes = 0;
+
+            resume = this.paused;
+            this.paused = false;
+        }
+
+        if (resume && !this.request.isEnded()) {
+            log.trace("Resume request to discard remaining data");
+            this.request.resume();
+        }
+    }
+
+    /**
+     * Read the whole request body.
+     *
+     * @return request body
+     */
+    public ClickHouseBuffer readAll() {
+        Buffer buffer = Buffer.buffer();
+
+        LinkedList<Buffer> chunks;
+        while (!(chunks = take()).isEmpty()) {
+            for (Buffer chunk : chunks) {
+                buffer.appendBuffer(chunk);
+            }
+        }
+
+        return ClickHouseBuffer.wrap(buffer);
+    }
+}
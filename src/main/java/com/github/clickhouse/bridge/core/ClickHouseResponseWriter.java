@@ -20,37 +20,366 @@
  */
 package com.github.clickhouse.bridge.core;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerResponse;
 
 public class ClickHouseResponseWriter {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClickHouseResponseWriter.class);
+
+    public static final int DEFAULT_WRITE_QUEUE_MAX_SIZE = 4 * StreamOptions.DEFAULT_BLOCK_BYTES;
+
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+
+    // in case we missed drain/close event
+    private static final long DRAIN_CHECK_INTERVAL = 1000L;
+
     private final HttpServerResponse response;
     private final StreamOptions options;
+    // null means no compression
+    private final ClickHouseCompressor compressor;
+    private boolean compressing = false;
+
+    // for measuring time to first row
+    private final long startTime;
+    private long writtenBytes = 0L;
+
+    // number of drain and close events received so far
+    private long signals = 0L;
+
+    // handlers for releasing resources, for example: cancel running statement
+    private final List<Handler<Void>> cancelHandlers = new ArrayList<>();
+    private volatile boolean cancelled = false;
+
+    // receive everything written to the response, only accessed by the writing
+    // thread
+    private final List<Handler<Buffer>> teeHandlers = new ArrayList<>();
 
     public ClickHouseResponseWriter(HttpServerResponse response, StreamOptions options) {
+        this(response, options, DEFAULT_WRITE_QUEUE_MAX_SIZE);
+    }
+
+    /**
+     * Create a response writer. Writing will be blocked when there are more than
+     * {@code writeQueueMaxSize} bytes pending in the write queue(high watermark),
+     * and resumed when the response is drained. Low watermark is always half of
+     * the high one, as defined by Vert.x.
+     *
+     * @param response          response to write to
+     * @param options           stream options
+     * @param writeQueueMaxSize max size of the write queue in bytes
+     */
+    public ClickHouseResponseWriter(HttpServerResponse response, StreamOptions options, int writeQueueMaxSize) {
+        this(response, options, writeQueueMaxSize, null);
+    }
+
+    /**
+     * Create a response writer, which compresses blocks before writing them into
+     * the response.
+     *
+     * @param response          response to write to
+     * @param options           stream options
+     * @param writeQueueMaxSize max size of the write queue in bytes
+     * @param compressor        compressor, null means no compression
+     */
+    public ClickHouseResponseWriter(HttpServerResponse response, StreamOptions options, int writeQueueMaxSize,
+            ClickHouseCompressor compressor) {
         this.response = response;
         this.options = options;
+        this.compressor = compressor;
+        this.startTime = System.nanoTime();
+
+        this.response.setWriteQueueMaxSize(
+                writeQueueMaxSize > 0 ? writeQueueMaxSize : DEFAULT_WRITE_QUEUE_MAX_SIZE);
+        this.response.drainHandler(v -> {
+            log.trace("Response drained, about to resume writing...");
+            this.signal();
+        });
+        this.response.closeHandler(v -> {
+            log.trace("Response closed, about to stop writing...");
+            this.cancel();
+        });
+        // response is ended by someone else, for example TimeoutHandler
+        this.response.endHandler(v -> {
+            log.trace("Response ended, about to stop writing...");
+            this.cancel();
+        });
+    }
 
-        this.response.setWriteQueueMaxSize(this.options.getMaxBlockSize());
+    private static void runCancelHandlers(List<Handler<Void>> handlers) {
+        for (Handler<Void> handler : handlers) {
+            try {
+                handler.handle(null);
+            } catch (Exception e) {
+                log.warn("Failed to cancel", e);
+            }
+        }
+    }
+
+    private void cancel() {
+        final List<Handler<Void>> handlers;
+        synchronized (this) {
+            if (this.cancelled) {
+                return;
+            }
+
+            this.cancelled = true;
+            this.signals++;
+            this.notifyAll();
+
+            handlers = new ArrayList<>(this.cancelHandlers);
+        }
+
+        if (handlers.isEmpty()) {
+            return;
+        }
+
+        log.debug("Cancelling {} in-flight operation(s)...", handlers.size());
+
+        // cancelling a statement may involve network I/O, which should never
+        // happen on event loop
+        Context context = Vertx.currentContext();
+        if (context != null) {
+            context.executeBlocking(promise -> {
+                runCancelHandlers(handlers);
+                promise.complete();
+            }, false, null);
+        } else {
+            runCancelHandlers(handlers);
+        }
+    }
+
+    private synchronized void signal() {
+        this.signals++;
+        this.notifyAll();
+    }
+
+    private synchronized long getSignals() {
+        return this.signals;
+    }
+
+    private synchronized void waitForSignal(long lastSignals) {
+        if (this.signals == lastSignals) {
+            try {
+                this.wait(DRAIN_CHECK_INTERVAL);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for response to be drained", e);
+            }
+        }
+    }
+
+    private void waitForDrain() {
+        // never call response methods while holding the lock, as they're
+        // synchronized on the connection, which could be locked by event loop when
+        // calling our handlers
+        long lastSignals = getSignals();
+        while (this.response.writeQueueFull()) {
+            if (!isOpen()) {
+                throw new IllegalStateException("Response stream was closed");
+            }
+
+            waitForSignal(lastSignals);
+            lastSignals = getSignals();
+        }
     }
 
     public StreamOptions getOptions() {
         return this.options;
     }
 
+    /**
+     * Get the time, in nanoseconds, this writer was created.
+     *
+     * @return value of {@link System#nanoTime()} when this writer was created
+     */
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    public long getWrittenBytes() {
+        return this.writtenBytes;
+    }
+
     public boolean isOpen() {
         return !this.response.closed() && !this.response.ended();
     }
 
+    /**
+     * Check if the response was closed or ended before the operation completes.
+     *
+     * @return true if the operation should be stopped as soon as possible
+     */
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Add a handler to be called when the response is closed by client or ended
+     * by someone else(e.g. timed out). The handler is called right away when the
+     * response has already been cancelled.
+     *
+     * @param handler cancel handler
+     */
+    public void addCancelHandler(Handler<Void> handler) {
+        boolean cancelledAlready;
+        synchronized (this) {
+            cancelledAlready = this.cancelled;
+            if (!cancelledAlready) {
+                this.cancelHandlers.add(handler);
+            }
+        }
+
+        if (cancelledAlready) {
+            handler.handle(null);
+        }
+    }
+
+    public synchronized void removeCancelHandler(Handler<Void> handler) {
+        this.cancelHandlers.remove(handler);
+    }
+
     public void setDrainHanlder(Handler<Void> handler) {
         this.response.drainHandler(handler);
     }
 
+    /**
+     * Add a handler to receive a copy of each buffer written afterwards, for
+     * example, to share query result with identical requests. Handlers must be
+     * added and removed by the writing thread.
+     *
+     * @param handler tee handler
+     */
+    public void addTeeHandler(Handler<Buffer> handler) {
+        this.teeHandlers.add(handler);
+    }
+
+    public void removeTeeHandler(Handler<Buffer> handler) {
+        this.teeHandlers.remove(handler);
+    }
+
+    /**
+     * Send a region of file as the whole response. Without compression, the file
+     * is sent by kernel(e.g. using sendfile) and the response will be ended
+     * afterwards. Otherwise, the file is compressed and written like any other
+     * blocks, and the response has to be completed by {@link #finish()} and
+     * ended by the caller. Tee handlers will not receive anything either way.
+     *
+     * @param filename file to send
+     * @param offset   offset to start from
+     * @param length   length in bytes
+     * @param handler  handler called when completed
+     */
+    public void sendFile(String filename, long offset, long length, Handler<AsyncResult<Void>> handler) {
+        if (this.cancelled || this.response.closed() || this.response.ended()) {
+            throw new IllegalStateException("Response stream was closed");
+        }
+
+        if (this.compressor != null) {
+            // file has to be compressed on our own, so there's no zero-copy
+            try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+                channel.position(offset);
+                ByteBuffer bb = ByteBuffer.allocate(StreamOptions.DEFAULT_BLOCK_BYTES);
+                for (long remaining = length; remaining > 0L;) {
+                    bb.clear();
+                    bb.limit((int) Math.min(bb.capacity(), remaining));
+                    int read = channel.read(bb);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                    remaining -= read;
+                    writeThrough(Buffer.buffer(read).appendBytes(bb.array(), 0, read));
+                }
+            } catch (IOException e) {
+                handler.handle(Future.failedFuture(e));
+                return;
+            }
+
+            handler.handle(Future.succeededFuture());
+            return;
+        }
+
+        this.response.sendFile(filename, offset, length, res -> {
+            if (res.succeeded()) {
+                this.writtenBytes += length;
+            }
+            handler.handle(res);
+        });
+    }
+
     public void write(ClickHouseBuffer buffer) {
-        if (this.response.closed() || this.response.ended()) {
+        if (this.cancelled || this.response.closed() || this.response.ended()) {
             throw new IllegalStateException("Response stream was closed");
         }
 
-        this.response.write(buffer.unwrap());
+        if (!this.teeHandlers.isEmpty()) {
+            // response owns the buffer once it's written
+            Buffer copy = buffer.unwrap().copy();
+            for (Handler<Buffer> handler : this.teeHandlers) {
+                handler.handle(copy);
+            }
+        }
+
+        writeThrough(buffer.unwrap());
+    }
+
+    // write to response without copying to tee handlers
+    private void writeThrough(Buffer buffer) {
+        this.writtenBytes += buffer.length();
+        if (this.compressor == null) {
+            this.response.write(buffer);
+        } else {
+            if (!this.compressing) {
+                // set header only when there's something to write, so that error
+                // response will not be marked as compressed
+                this.compressing = true;
+                this.response.putHeader(CONTENT_ENCODING, this.compressor.getEncoding());
+            }
+            this.response.write(this.compressor.compress(buffer));
+        }
+
+        // block current thread until the write queue is drained
+        if (this.response.writeQueueFull()) {
+            waitForDrain();
+        }
+    }
+
+    /**
+     * Complete the response after everything has been written successfully, for
+     * instance, write trailer of compressed stream. The response is not ended
+     * here.
+     */
+    public void finish() {
+        if (this.compressor == null) {
+            return;
+        }
+
+        Buffer trailer = this.compressor.finish();
+        if (this.compressing && isOpen()) {
+            this.response.write(trailer);
+        }
+    }
+
+    /**
+     * Release resources held by the writer, for example native memory of the
+     * compressor, no matter the response is completed or not. It must be called
+     * by the writing thread, and nothing can be written afterwards.
+     */
+    public void release() {
+        if (this.compressor != null) {
+            this.compressor.close();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,423 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * Cache of encoded query results, bounded by total bytes. Each entry has its
+ * own time-to-live, so that a named query can be cached longer or shorter than
+ * others in the same datasource. Optionally, results larger than
+ * {@code spillBytes} are kept in files under a directory and sent back using
+ * {@code sendFile}, so that large results do not occupy heap.
+ */
+public class ClickHouseResultCache {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClickHouseResultCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_TTL = 60L;
+
+    public static final long DEFAULT_DISK_BYTES = 1024L * 1024 * 1024;
+    public static final long DEFAULT_SPILL_BYTES = 1024L * 1024;
+
+    // no well-known extension, so that no content type will be set when sending
+    private static final String RESULT_FILE_EXT = ".result";
+
+    // directories already purged by this process, which may be shared by
+    // datasources, or by a retired one and its replacement
+    private static final Set<Path> PURGED_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    abstract static class CachedResult {
+        final long bytes;
+        final long ttlNanos;
+
+        CachedResult(long bytes, long ttlNanos) {
+            this.bytes = bytes;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+
+    static final class HeapResult extends CachedResult {
+        final List<Buffer> buffers;
+
+        HeapResult(List<Buffer> buffers, long bytes, long ttlNanos) {
+            super(bytes, ttlNanos);
+            this.buffers = Collections.unmodifiableList(buffers);
+        }
+    }
+
+    static final class FileResult extends CachedResult {
+        final Path file;
+
+        FileResult(Path file, long bytes, long ttlNanos) {
+            super(bytes, ttlNanos);
+            this.file = file;
+        }
+    }
+
+    static final class ResultExpiry implements Expiry<String, CachedResult> {
+        @Override
+        public long expireAfterCreate(String key, CachedResult value, long currentTime) {
+            return value.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, CachedResult value, long currentTime, long currentDuration) {
+            return value.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterRead(String key, CachedResult value, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    // collects result written to response, into either heap or file
+    final class Capture implements Handler<Buffer> {
+        final List<Buffer> buffers = new ArrayList<>();
+        long bytes = 0L;
+        boolean discarded = false;
+
+        Path file;
+        FileChannel channel;
+
+        private void discard(String reason) {
+            log.debug("Query result will not be cached: {}", reason);
+            this.discarded = true;
+            this.buffers.clear();
+            close(false);
+        }
+
+        private void writeToFile(Buffer buffer) throws IOException {
+            ByteBuffer bb = buffer.getByteBuf().nioBuffer();
+            while (bb.hasRemaining()) {
+                this.channel.write(bb);
+            }
+        }
+
+        @Override
+        public void handle(Buffer buffer) {
+            if (this.discarded) {
+                return;
+            }
+
+            this.bytes += buffer.length();
+
+            if (directory == null) {
+                if (this.bytes > maxBytes) {
+                    discard("exceeds " + maxBytes + " bytes");
+                } else {
+                    this.buffers.add(buffer);
+                }
+                return;
+            } else if (this.bytes > diskBytes) {
+                discard("exceeds " + diskBytes + " bytes");
+                return;
+            }
+
+            try {
+                if (this.channel != null) {
+                    writeToFile(buffer);
+                } else if (this.bytes > spillBytes) {
+                    this.file = directory.resolve(UUID.randomUUID().toString() + RESULT_FILE_EXT);
+                    this.channel = FileChannel.open(this.file, StandardOpenOption.CREATE_NEW,
+                            StandardOpenOption.WRITE);
+                    for (Buffer b : this.buffers) {
+                        writeToFile(b);
+                    }
+                    this.buffers.clear();
+                    writeToFile(buffer);
+                } else {
+                    this.buffers.add(buffer);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to write query result into [" + this.file + "]", e);
+                discard(e.getMessage());
+            }
+        }
+
+        // returns false if the file was deleted
+        boolean close(boolean keepFile) {
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (IOException e) {
+                    log.warn("Failed to close [" + this.file + "]", e);
+                    keepFile = false;
+                }
+                this.channel = null;
+            }
+
+            if (this.file != null && !keepFile) {
+                deleteFile(this.file);
+                this.file = null;
+            }
+
+            return keepFile;
+        }
+    }
+
+    private final long maxBytes;
+    private final long defaultTtl;
+    private final Cache<String, CachedResult> cache;
+
+    // null when results are never spilled to disk
+    private final Path directory;
+    private final long diskBytes;
+    private final long spillBytes;
+    private final Cache<String, CachedResult> diskCache;
+
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Failed to delete [" + file + "]", e);
+        }
+    }
+
+    // files left by previous process are not tracked by any cache, and will
+    // never be deleted otherwise
+    private static void purgeDirectory(Path directory) {
+        if (!PURGED_DIRECTORIES.add(directory.toAbsolutePath().normalize())) {
+            return;
+        }
+
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + RESULT_FILE_EXT)) {
+            for (Path file : files) {
+                deleteFile(file);
+                count++;
+            }
+        } catch (IOException e) {
+            log.warn("Failed to purge directory [" + directory + "]", e);
+        }
+
+        if (count > 0) {
+            log.info("Deleted {} orphaned result file(s) in [{}]", count, directory);
+        }
+    }
+
+    /**
+     * Create a result cache.
+     *
+     * @param maxBytes   maximum bytes of all cached results
+     * @param defaultTtl default time-to-live in seconds
+     */
+    public ClickHouseResultCache(long maxBytes, long defaultTtl) {
+        this(maxBytes, defaultTtl, null, DEFAULT_DISK_BYTES, DEFAULT_SPILL_BYTES);
+    }
+
+    /**
+     * Create a result cache, which spills large results to disk.
+     *
+     * @param maxBytes   maximum bytes of all cached results in heap
+     * @param defaultTtl default time-to-live in seconds
+     * @param directory  directory for keeping large results, null to disable
+     * @param diskBytes  maximum bytes of all cached results on disk
+     * @param spillBytes results larger than this will be kept on disk
+     */
+    public ClickHouseResultCache(long maxBytes, long defaultTtl, Path directory, long diskBytes,
+            long spillBytes) {
+        if (maxBytes <= 0L) {
+            throw new IllegalArgumentException("Max bytes must be greater than zero");
+        }
+
+        this.maxBytes = maxBytes;
+        this.defaultTtl = defaultTtl;
+        this.cache = Caffeine.newBuilder().maximumWeight(maxBytes)
+                .weigher((String k, CachedResult v) -> (int) Math.min(Integer.MAX_VALUE, v.bytes + 2L * k.length()))
+                .expireAfter(new ResultExpiry()).build();
+
+        this.diskBytes = diskBytes;
+        this.spillBytes = Math.min(spillBytes, maxBytes);
+        if (directory == null) {
+            this.directory = null;
+            this.diskCache = null;
+        } else {
+            try {
+                Files.createDirectories(directory);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Failed to create directory [" + directory + "]", e);
+            }
+            purgeDirectory(directory);
+            this.directory = directory;
+            // weighed in KB, as a file could be larger than 2GB
+            this.diskCache = Caffeine.newBuilder().maximumWeight(Math.max(1L, diskBytes >> 10))
+                    .weigher((String k, CachedResult v) -> (int) Math.min(Integer.MAX_VALUE, (v.bytes >> 10) + 1L))
+                    .expireAfter(new ResultExpiry()).removalListener((k, v, cause) -> {
+                        if (v instanceof FileResult) {
+                            deleteFile(((FileResult) v).file);
+                        }
+                    }).build();
+        }
+    }
+
+    public long getMaxBytes() {
+        return this.maxBytes;
+    }
+
+    public long getDefaultTtl() {
+        return this.defaultTtl;
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    long getEstimatedSize() {
+        this.cache.cleanUp();
+        long size = this.cache.estimatedSize();
+        if (this.diskCache != null) {
+            this.diskCache.cleanUp();
+            size += this.diskCache.estimatedSize();
+        }
+        return size;
+    }
+
+    public void invalidateAll() {
+        this.cache.invalidateAll();
+        if (this.diskCache != null) {
+            this.diskCache.invalidateAll();
+            this.diskCache.cleanUp();
+        }
+    }
+
+    // returns false if the file cannot be sent, and response is still writable
+    private boolean send(String key, FileResult result, ClickHouseResponseWriter writer) {
+        log.debug("Sending cached query result in {} bytes from [{}]", result.bytes, result.file);
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        writer.sendFile(result.file.toString(), 0L, result.bytes, res -> {
+            if (res.succeeded()) {
+                future.complete(null);
+            } else {
+                future.completeExceptionally(res.cause());
+            }
+        });
+
+        try {
+            future.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while sending cached query result", e);
+        } catch (ExecutionException e) {
+            log.warn("Failed to send cached query result from [" + result.file + "]", e.getCause());
+            this.diskCache.invalidate(key);
+            if (!writer.isOpen()) {
+                throw new IllegalStateException("Response stream was closed", e.getCause());
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Write cached result, or execute the query and cache its result.
+     *
+     * @param key       key of the query, requests with same key must produce
+     *                  exactly the same response
+     * @param ttl       time-to-live in seconds, negative number means default
+     *                  and zero means no cache
+     * @param writer    response writer
+     * @param execution handler to execute the query and write result into the
+     *                  given writer
+     * @return true if the result was served from cache; false otherwise
+     */
+    public boolean execute(String key, long ttl, ClickHouseResponseWriter writer,
+            Handler<ClickHouseResponseWriter> execution) {
+        Objects.requireNonNull(key);
+        Objects.requireNonNull(writer);
+        Objects.requireNonNull(execution);
+
+        if (ttl < 0L) {
+            ttl = this.defaultTtl;
+        }
+
+        if (ttl == 0L) {
+            execution.handle(writer);
+            return false;
+        }
+
+        CachedResult cached = this.cache.getIfPresent(key);
+        if (cached == null && this.diskCache != null) {
+            cached = this.diskCache.getIfPresent(key);
+        }
+
+        if (cached instanceof HeapResult) {
+            log.debug("Found cached query result in {} bytes", cached.bytes);
+            for (Buffer buffer : ((HeapResult) cached).buffers) {
+                writer.write(ClickHouseBuffer.wrap(buffer.copy()));
+            }
+            return true;
+        } else if (cached instanceof FileResult && send(key, (FileResult) cached, writer)) {
+            return true;
+        }
+
+        final Capture capture = new Capture();
+        boolean succeeded = false;
+        long startBytes = writer.getWrittenBytes();
+        writer.addTeeHandler(capture);
+        try {
+            execution.handle(writer);
+            // in case something was written without passing through tee handlers
+            succeeded = writer.getWrittenBytes() - startBytes == capture.bytes;
+        } finally {
+            writer.removeTeeHandler(capture);
+            if (!capture.close(succeeded && !capture.discarded)) {
+                succeeded = false;
+            }
+        }
+
+        if (succeeded && !capture.discarded) {
+            long ttlNanos = TimeUnit.SECONDS.toNanos(ttl);
+            if (capture.file != null) {
+                this.diskCache.put(key, new FileResult(capture.file, capture.bytes, ttlNanos));
+            } else {
+                this.cache.put(key, new HeapResult(capture.buffers, capture.bytes, ttlNanos));
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import java.io.Closeable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.micrometer.core.instrument.Gauge;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+
+/**
+ * Named worker pool dedicated to one datasource, so that slow datasource will
+ * not starve others. Unlike Vert.x worker executor, tasks beyond pool size plus
+ * queue size will be rejected right away instead of waiting in an unbounded
+ * queue.
+ */
+public class ClickHouseWorkerExecutor implements Closeable {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClickHouseWorkerExecutor.class);
+
+    // Vert.x shares worker pools by name, while a retired datasource may still
+    // be draining when its replacement, possibly with a different pool size,
+    // creates a new pool
+    private static final AtomicLong GENERATION = new AtomicLong(0L);
+
+    private static final String METER_PENDING = "worker.pending";
+    private static final String TAG_POOL = "pool";
+
+    private final String name;
+    private final int poolSize;
+    private final int queueSize;
+    private final WorkerExecutor executor;
+
+    // number of tasks either running or waiting in queue
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final Gauge pendingGauge;
+
+    public ClickHouseWorkerExecutor(Vertx vertx, String name, int poolSize, int queueSize) {
+        if (poolSize <= 0) {
+            throw new IllegalArgumentException("Pool size must be greater than zero");
+        }
+
+        this.name = name;
+        this.poolSize = poolSize;
+        this.queueSize = queueSize;
+        this.executor = vertx.createSharedWorkerExecutor(name + "-" + GENERATION.incrementAndGet(), poolSize);
+        // gauge of a retired pool with same name is bound to its own counter
+        DataSourceMetrics.removeMeters(METER_PENDING, TAG_POOL, name);
+        this.pendingGauge = Gauge.builder(METER_PENDING, this.pending, AtomicInteger::get)
+                .description("Tasks running or waiting in worker pool").tag(TAG_POOL, name)
+                .register(DataSourceMetrics.getRegistry());
+
+        log.info("Created worker pool [{}]: poolSize={}, queueSize={}", name, poolSize, queueSize);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getPoolSize() {
+        return this.poolSize;
+    }
+
+    public int getQueueSize() {
+        return this.queueSize;
+    }
+
+    public int getPendingTasks() {
+        return this.pending.get();
+    }
+
+    public <T> void executeBlocking(Handler<Promise<T>> blockingCodeHandler, Handler<AsyncResult<T>> resultHandler) {
+        int count = this.pending.incrementAndGet();
+        if (this.queueSize >= 0 && count > this.poolSize + this.queueSize) {
+            this.pending.decrementAndGet();
+
+            resultHandler.handle(Future.failedFuture(new RejectedExecutionException(
+                    "Too many pending tasks in worker pool [" + this.name + "], please try again later")));
+            return;
+        }
+
+        this.executor.executeBlocking(promise -> {
+            try {
+                blockingCodeHandler.handle(promise);
+            } finally {
+                this.pending.decrementAndGet();
+            }
+        }, false, resultHandler);
+    }
+
+    @Override
+    public void close() {
+        log.info("Closing worker pool [{}]...", this.name);
+
+        DataSourceMetrics.removeMeter(this.pendingGauge);
+        this.executor.close();
+    }
+}
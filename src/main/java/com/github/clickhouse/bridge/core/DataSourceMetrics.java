@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of a datasource. All meters are registered in Micrometer's global
+ * registry, which is exposed by the bridge server through {@code /metrics}.
+ */
+public class DataSourceMetrics {
+    public static final String TAG_DATASOURCE = "datasource";
+
+    // use a fixed tag for adhoc datasources, as connection string may contain
+    // credentials and there could be too many of them
+    public static final String ADHOC_DATASOURCE = "adhoc";
+
+    private final Timer queryTime;
+    private final Timer firstRowTime;
+    private final DistributionSummary streamedRows;
+    private final DistributionSummary streamedBytes;
+    private final Timer writeBatchTime;
+    private final Timer inferColumnsTime;
+    private final Timer metadataColumnsTime;
+    private final Counter resultCacheHits;
+    private final Counter resultCacheMisses;
+
+    public static MeterRegistry getRegistry() {
+        return Metrics.globalRegistry;
+    }
+
+    /**
+     * Remove meters having the given tag from the registry. Micrometer returns
+     * existing meter when registering a new one with same name and tags, so
+     * meters bound to an object being replaced must be removed first.
+     *
+     * @param key   tag key
+     * @param value tag value
+     */
+    public static void removeMeters(String key, String value) {
+        removeMeters(null, key, value);
+    }
+
+    /**
+     * Remove meters having the given name and tag from the registry.
+     *
+     * @param name  meter name, null means any
+     * @param key   tag key
+     * @param value tag value
+     */
+    public static void removeMeters(String name, String key, String value) {
+        MeterRegistry registry = getRegistry();
+        for (Meter meter : registry.getMeters()) {
+            Meter.Id id = meter.getId();
+            if ((name == null || name.equals(id.getName())) && value.equals(id.getTag(key))) {
+                registry.remove(meter);
+            }
+        }
+    }
+
+    /**
+     * Remove the given meter, but only when it's still registered. Meter with
+     * same name and tags registered afterwards, for example by a datasource
+     * replacing the one being closed, is left as is.
+     *
+     * @param meter meter to remove
+     */
+    public static void removeMeter(Meter meter) {
+        MeterRegistry registry = getRegistry();
+        for (Meter m : registry.getMeters()) {
+            if (m == meter) {
+                registry.remove(meter);
+                break;
+            }
+        }
+    }
+
+    private static Timer newTimer(String name, String description, String datasource) {
+        return Timer.builder(name).description(description).tag(TAG_DATASOURCE, datasource)
+                .publishPercentileHistogram().register(getRegistry());
+    }
+
+    private static DistributionSummary newSummary(String name, String description, String unit, String datasource) {
+        return DistributionSummary.builder(name).description(description).baseUnit(unit)
+                .tag(TAG_DATASOURCE, datasource).publishPercentileHistogram().register(getRegistry());
+    }
+
+    private static Counter newCounter(String name, String description, String result, String datasource) {
+        return Counter.builder(name).description(description).tag("result", result).tag(TAG_DATASOURCE, datasource)
+                .register(getRegistry());
+    }
+
+    public DataSourceMetrics(String datasource) {
+        String tag = datasource == null ? ADHOC_DATASOURCE : datasource;
+
+        this.queryTime = newTimer("datasource.query", "Total time spent on query", tag);
+        this.firstRowTime = newTimer("datasource.query.first.row", "Time to first row of query result", tag);
+        this.streamedRows = newSummary("datasource.query.rows", "Rows streamed per query", "rows", tag);
+        this.streamedBytes = newSummary("datasource.query.bytes", "Bytes streamed per query", "bytes", tag);
+        this.writeBatchTime = newTimer("datasource.write.batch", "Time spent on executing a write batch", tag);
+        this.inferColumnsTime = newTimer("datasource.columns.infer", "Time spent on inferring columns", tag);
+        this.metadataColumnsTime = newTimer("datasource.columns.metadata",
+                "Time spent on getting columns from database metadata", tag);
+        this.resultCacheHits = newCounter("datasource.query.cache", "Result cache lookups of queries", "hit", tag);
+        this.resultCacheMisses = newCounter("datasource.query.cache", "Result cache lookups of queries", "miss",
+                tag);
+    }
+
+    public Timer getQueryTime() {
+        return this.queryTime;
+    }
+
+    public Timer getFirstRowTime() {
+        return this.firstRowTime;
+    }
+
+    public DistributionSummary getStreamedRows() {
+        return this.streamedRows;
+    }
+
+    public DistributionSummary getStreamedBytes() {
+        return this.streamedBytes;
+    }
+
+    public Timer getWriteBatchTime() {
+        return this.writeBatchTime;
+    }
+
+    public Timer getInferColumnsTime() {
+        return this.inferColumnsTime;
+    }
+
+    public Timer getMetadataColumnsTime() {
+        return this.metadataColumnsTime;
+    }
+
+    public Counter getResultCacheHits() {
+        return this.resultCacheHits;
+    }
+
+    public Counter getResultCacheMisses() {
+        return this.resultCacheMisses;
+    }
+}
@@ -35,12 +35,17 @@ public class QueryParameters {
     public static final String PARAM_DATASOURCE_COLUMN = "datasource_column";
     public static final String PARAM_CUSTOM_COLUMNS = "custom_columns";
     public static final String PARAM_DEBUG = "debug";
+    public static final String PARAM_WRITE_THREADS = "write_threads";
+    public static final String PARAM_PARTITION_COLUMN = "partition_column";
+    public static final String PARAM_PARTITIONS = "partitions";
 
     public static final int DEFAULT_BATCH_SIZE = 100;
     public static final int DEFAULT_FETCH_SIZE = 1000;
     public static final int DEFAULT_MAX_ROWS = 0;
     public static final int DEFAULT_OFFSET = 0;
     public static final int DEFAULT_POSITION = 0;
+    public static final int DEFAULT_WRITE_THREADS = 0;
+    public static final int DEFAULT_PARTITIONS = 0;
 
     private final TypedParameter<Integer> batchSize;
     private final TypedParameter<Integer> fetchSize;
@@ -51,6 +56,9 @@ public class QueryParameters {
     private final TypedParameter<Boolean> datasourceColumn;
     private final TypedParameter<Boolean> customColumns;
     private final TypedParameter<Boolean> debug;
+    private final TypedParameter<Integer> writeThreads;
+    private final TypedParameter<String> partitionColumn;
+    private final TypedParameter<Integer> partitions;
 
     private final Map<String, TypedParameter<?>> params = new TreeMap<>();
 
@@ -72,6 +80,12 @@ public class QueryParameters {
         ClickHouseUtils.addTypedParameter(params,
                 this.customColumns = new TypedParameter<>(Boolean.class, PARAM_CUSTOM_COLUMNS, false));
         ClickHouseUtils.addTypedParameter(params, this.debug = new TypedParameter<>(Boolean.class, PARAM_DEBUG, false));
+        ClickHouseUtils.addTypedParameter(params, this.writeThreads = new TypedParameter<>(Integer.class,
+                PARAM_WRITE_THREADS, DEFAULT_WRITE_THREADS));
+        ClickHouseUtils.addTypedParameter(params,
+                this.partitionColumn = new TypedParameter<>(String.class, PARAM_PARTITION_COLUMN, ""));
+        ClickHouseUtils.addTypedParameter(params,
+                this.partitions = new TypedParameter<>(Integer.class, PARAM_PARTITIONS, DEFAULT_PARTITIONS));
     }
 
     public QueryParameters(String uri) {
@@ -176,6 +190,18 @@ public class QueryParameters {
         return this.debug.getValue();
     }
 
+    public int getWriteThreads() {
+        return this.writeThreads.getValue();
+    }
+
+    public String getPartitionColumn() {
+        return this.partitionColumn.getValue();
+    }
+
+    public int getPartitions() {
+        return this.partitions.getValue();
+    }
+
     public String toQueryString() {
         StringBuilder sb = new StringBuilder();
 
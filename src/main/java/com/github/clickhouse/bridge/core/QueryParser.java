@@ -217,7 +217,7 @@ public class QueryParser {
         String uri = Objects.requireNonNull(resolver).resolve(req.getParam(PARAM_CONNECTION_STRING));
         if (forWrite) {
             query = new QueryParser(uri, req.getParam(PARAM_DB_NAME), req.getParam(PARAM_TABLE_NAME),
-                    req.getParam(PARAM_COLUMNS), req.getParam(PARAM_FORMAT_NAME), null, null);
+                    req.getParam(PARAM_COLUMNS), req.getParam(PARAM_FORMAT_NAME), null, req.params());
         } else {
             String schema = req.getParam(PARAM_SCHEMA);
             String table = req.getParam(PARAM_TABLE);
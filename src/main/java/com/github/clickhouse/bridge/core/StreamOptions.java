@@ -24,22 +24,62 @@ import io.vertx.core.MultiMap;
 
 public class StreamOptions {
     private static final String PARAM_MAX_BLOCK_SIZE = "max_block_size";
+    private static final String PARAM_MAX_BLOCK_BYTES = "max_block_bytes";
+    private static final String PARAM_OUTPUT_FORMAT = "output_format";
 
     public static final int DEFAULT_BLOCK_SIZE = 65535;
+    public static final int DEFAULT_BLOCK_BYTES = 1024 * 1024;
+
+    public static final String FORMAT_ROW_BINARY = "RowBinary";
+    public static final String FORMAT_NATIVE = "Native";
 
     private final int maxBlockSize;
+    private final int maxBlockBytes;
+    private final String outputFormat;
 
     public StreamOptions(MultiMap params) {
         int blockSize = DEFAULT_BLOCK_SIZE;
-        try {
-            blockSize = Integer.parseInt(params.get(PARAM_MAX_BLOCK_SIZE));
-        } catch (Exception e) {
+        int blockBytes = DEFAULT_BLOCK_BYTES;
+        String format = FORMAT_ROW_BINARY;
+
+        if (params != null) {
+            try {
+                blockSize = Integer.parseInt(params.get(PARAM_MAX_BLOCK_SIZE));
+            } catch (Exception e) {
+            }
+
+            try {
+                blockBytes = Integer.parseInt(params.get(PARAM_MAX_BLOCK_BYTES));
+            } catch (Exception e) {
+            }
+
+            // anything else falls back to RowBinary
+            if (FORMAT_NATIVE.equalsIgnoreCase(params.get(PARAM_OUTPUT_FORMAT))) {
+                format = FORMAT_NATIVE;
+            }
         }
 
         this.maxBlockSize = blockSize;
+        this.maxBlockBytes = blockBytes;
+        this.outputFormat = format;
     }
 
+    // max number of rows in a block
     public int getMaxBlockSize() {
         return this.maxBlockSize;
     }
+
+    // max size of a block in bytes
+    public int getMaxBlockBytes() {
+        return this.maxBlockBytes;
+    }
+
+    // format of query result, either RowBinary or Native
+    public String getOutputFormat() {
+        return this.outputFormat;
+    }
+
+    public boolean isNativeFormat() {
+        return FORMAT_NATIVE.equals(this.outputFormat);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.clickhouse.bridge.core.QueryParameters;
+
+/**
+ * This class decouples decoding from execution of a mutation. Decoded rows are
+ * grouped into batches and put into a bounded queue, from which one or more
+ * threads, each holding its own connection, bind and execute them.
+ */
+final class ClickHouseBatchPipeline {
+    private static final List<Object[]> END_OF_BATCHES = Collections.emptyList();
+
+    private static final long POLL_INTERVAL_MS = 1000L;
+
+    private final ClickHouseJdbcDataSource datasource;
+    private final String sql;
+    private final ClickHouseRowCodec codec;
+    private final QueryParameters params;
+    private final int batchSize;
+
+    private final BlockingQueue<List<Object[]>> queue;
+    private final List<Future<Integer>> workers;
+
+    private final AtomicLong executionTime = new AtomicLong(0L);
+
+    private volatile boolean aborted = false;
+
+    private List<Object[]> batch;
+    private long waitTime = 0L;
+
+    ClickHouseBatchPipeline(ClickHouseJdbcDataSource datasource, String sql, ClickHouseRowCodec codec,
+            QueryParameters params, ExecutorService executor, int threads) {
+        this.datasource = datasource;
+        this.sql = sql;
+        this.codec = codec;
+        this.params = params;
+        this.batchSize = Math.max(params.getBatchSize(), 1);
+
+        // enough to keep all threads busy while next batch is being decoded
+        this.queue = new ArrayBlockingQueue<>(threads * 2);
+        this.workers = new ArrayList<>(threads);
+
+        this.batch = new ArrayList<>(this.batchSize);
+
+        for (int i = 0; i < threads; i++) {
+            this.workers.add(executor.submit(this::execute));
+        }
+    }
+
+    private Integer execute() throws SQLException, InterruptedException {
+        boolean batched = this.params.getBatchSize() > 0;
+        int mutationCount = 0;
+
+        try (Connection conn = this.datasource.getConnection();
+                PreparedStatement stmt = this.datasource.createPreparedStatement(conn, this.sql, this.params)) {
+            List<Object[]> rows;
+            while ((rows = this.queue.take()) != END_OF_BATCHES) {
+                if (this.aborted) {
+                    break;
+                }
+
+                long startTime = System.nanoTime();
+                int count = 0;
+                for (Object[] row : rows) {
+                    // same typed setters as serial mode, regardless of write threads
+                    this.codec.bind(stmt, row);
+
+                    if (batched) {
+                        stmt.addBatch();
+                    } else {
+                        count += stmt.executeUpdate();
+                    }
+                }
+
+                if (batched) {
+                    count += this.datasource.executeBatch(stmt);
+                }
+
+                mutationCount += count;
+                this.executionTime.addAndGet(System.nanoTime() - startTime);
+            }
+        } catch (SQLException | InterruptedException | RuntimeException e) {
+            this.aborted = true;
+            throw e;
+        } finally {
+            // let other threads know there's nothing left
+            this.queue.offer(END_OF_BATCHES);
+        }
+
+        return mutationCount;
+    }
+
+    private void enqueue(List<Object[]> rows) {
+        long startTime = System.nanoTime();
+
+        try {
+            while (!this.aborted && !this.queue.offer(rows, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                // check again
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.aborted = true;
+        }
+
+        this.waitTime += System.nanoTime() - startTime;
+
+        if (this.aborted) {
+            // stop decoding and find out what's wrong
+            abort();
+            join();
+        }
+    }
+
+    void add(Object[] row) {
+        this.batch.add(row);
+
+        if (this.batch.size() >= this.batchSize) {
+            enqueue(this.batch);
+            this.batch = new ArrayList<>(this.batchSize);
+        }
+    }
+
+    void abort() {
+        this.aborted = true;
+        // wake up threads waiting for next batch, so that they can quit
+        this.queue.clear();
+        this.queue.offer(END_OF_BATCHES);
+    }
+
+    int finish() {
+        if (this.batch.size() > 0) {
+            enqueue(this.batch);
+            this.batch = null;
+        }
+
+        enqueue(END_OF_BATCHES);
+
+        return join();
+    }
+
+    int join() {
+        Throwable error = null;
+        int mutationCount = 0;
+
+        for (Future<Integer> worker : this.workers) {
+            try {
+                mutationCount += worker.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                throw new IllegalStateException("Interrupted while waiting for mutation to complete", e);
+            }
+        }
+
+        if (error != null) {
+            abort();
+            throw new IllegalStateException("Failed to execute SQL", error);
+        } else if (this.aborted) {
+            throw new IllegalStateException("Mutation was aborted");
+        }
+
+        return mutationCount;
+    }
+
+    /**
+     * Get accumulated time, in nanoseconds, spent on binding parameters and
+     * executing statements, across all threads.
+     *
+     * @return execution time in nanoseconds
+     */
+    long getExecutionTime() {
+        return this.executionTime.get();
+    }
+
+    /**
+     * Get time, in nanoseconds, the decoding thread was blocked because the queue
+     * was full.
+     *
+     * @return wait time in nanoseconds
+     */
+    long getWaitTime() {
+        return this.waitTime;
+    }
+}
@@ -22,6 +22,7 @@ package com.github.clickhouse.bridge.jdbc;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
 import java.sql.JDBCType;
 import java.sql.PreparedStatement;
@@ -29,38 +30,54 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.github.clickhouse.bridge.core.ClickHouseResponseWriter;
 import com.github.clickhouse.bridge.core.IDataSourceResolver;
+import com.github.clickhouse.bridge.core.ClickHouseBlockWriter;
 import com.github.clickhouse.bridge.core.ClickHouseBuffer;
 import com.github.clickhouse.bridge.core.ClickHouseColumnInfo;
 import com.github.clickhouse.bridge.core.ClickHouseColumnList;
 import com.github.clickhouse.bridge.core.ClickHouseDataSource;
 import com.github.clickhouse.bridge.core.ClickHouseDataType;
+import com.github.clickhouse.bridge.core.ClickHouseRequestReader;
+import com.github.clickhouse.bridge.core.DataSourceMetrics;
 import com.github.clickhouse.bridge.core.QueryParameters;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
+import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
     private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClickHouseJdbcDataSource.class);
 
-    private static final Set<String> PRIVATE_PROPS = Collections
-            .unmodifiableSet(new HashSet<>(Arrays.asList(CONF_SCHEMA, CONF_TYPE, CONF_TIMEZONE, CONF_CACHE)));
+    private static final String CONF_COLUMNS_FROM_METADATA = "columnsFromMetadata";
+    private static final String CONF_DIALECT = "dialect";
+
+    private static final Set<String> PRIVATE_PROPS = Collections.unmodifiableSet(
+            new HashSet<>(Arrays.asList(CONF_SCHEMA, CONF_TYPE, CONF_TIMEZONE, CONF_CACHE, CONF_EXECUTOR,
+                    CONF_COALESCING, CONF_COLUMNS_FROM_METADATA, CONF_DIALECT)));
 
     private static final Properties DEFAULT_DATASOURCE_PROPERTIES = new Properties();
 
     private static final String PROP_POOL_NAME = "poolName";
     private static final String PROP_PASSWORD = "password";
+    private static final String PROP_TEST_QUERY = "connectionTestQuery";
 
     private static final String PROP_CLIENT_NAME = "ClientUser";
     private static final String DEFAULT_CLIENT_NAME = "clickhouse-datasource-bridge";
@@ -72,20 +89,46 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
 
     private static final String QUERY_FILE_EXT = ".sql";
 
+    private static final String PARTITION_ALIAS = "p";
+
+    // connection string may contain credentials, so don't use it as pool name
+    private static final String ADHOC_POOL_PREFIX = "adhoc-";
+    private static final AtomicInteger ADHOC_POOL_COUNTER = new AtomicInteger(0);
+    // Hikari tags pool meters by pool name, and removes them by name and tags when
+    // the pool is closed, so a retired pool must not share name with the new one
+    private static final AtomicInteger POOL_GENERATION = new AtomicInteger(0);
+
+    // also the limit of concurrent connections of an ad-hoc datasource without
+    // connection pool
+    private static final int DEFAULT_MAX_POOL_SIZE = 5;
+
     public static final String DATASOURCE_TYPE = "jdbc";
 
     static {
         // set default properties
-        DEFAULT_DATASOURCE_PROPERTIES.setProperty("connectionTestQuery", "SELECT 1");
+        DEFAULT_DATASOURCE_PROPERTIES.setProperty(PROP_TEST_QUERY, "SELECT 1");
         DEFAULT_DATASOURCE_PROPERTIES.setProperty("minimumIdle", "1");
-        DEFAULT_DATASOURCE_PROPERTIES.setProperty("maximumPoolSize", "5");
+        DEFAULT_DATASOURCE_PROPERTIES.setProperty("maximumPoolSize", String.valueOf(DEFAULT_MAX_POOL_SIZE));
     }
 
     private final String jdbcUrl;
     private final HikariDataSource datasource;
 
+    // whether to infer columns of a table using DatabaseMetaData, instead of
+    // executing a query
+    private final boolean columnsFromMetadata;
+    // sub-protocol of a registered dialect, empty means detecting automatically
+    private final String dialectName;
+
+    // threads for executing batches in pipelined mutation
+    private final ExecutorService writeExecutor;
+    // threads for executing partitions of a query
+    private final ExecutorService readExecutor;
+
     // cached identifier quote
     private String quoteIdentifier = null;
+    // detected on first query
+    private ClickHouseJdbcDialect dialect = null;
 
     public ClickHouseJdbcDataSource(String id, IDataSourceResolver resolver, JsonObject config) {
         super(id, resolver, config);
@@ -93,9 +136,21 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
         Properties props = new Properties();
         props.putAll(DEFAULT_DATASOURCE_PROPERTIES);
 
+        this.columnsFromMetadata = config == null || config.getBoolean(CONF_COLUMNS_FROM_METADATA, true);
+        this.dialectName = config == null ? "" : config.getString(CONF_DIALECT, "");
+
+        final HikariConfig poolConfig;
         if (id != null && id.startsWith(DATASOURCE_TYPE) && config == null) { // adhoc
             this.jdbcUrl = id;
-            this.datasource = null;
+            props.setProperty(PROP_POOL_NAME, ADHOC_POOL_PREFIX + ADHOC_POOL_COUNTER.incrementAndGet());
+            // not all databases support "SELECT 1", let driver validate connection instead
+            props.remove(PROP_TEST_QUERY);
+
+            poolConfig = new HikariConfig(props);
+            poolConfig.setJdbcUrl(id);
+            // no connection until the first query, and close all when idle
+            poolConfig.setMinimumIdle(0);
+            poolConfig.setInitializationFailTimeout(-1L);
         } else { // named
             if (config != null) {
                 for (Entry<String, Object> field : config) {
@@ -131,10 +186,46 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
                 }
             }
 
-            props.setProperty(PROP_POOL_NAME, id);
+            props.setProperty(PROP_POOL_NAME, id + "-" + POOL_GENERATION.incrementAndGet());
 
             this.jdbcUrl = null;
-            this.datasource = new HikariDataSource(new HikariConfig(props));
+            poolConfig = new HikariConfig(props);
+        }
+
+        // pool usage and connection wait time
+        poolConfig.setMetricRegistry(DataSourceMetrics.getRegistry());
+        this.datasource = this.jdbcUrl == null ? new HikariDataSource(poolConfig) : createAdhocPool(poolConfig);
+
+        // pool name instead of id, as connection string may contain credentials
+        this.writeExecutor = newExecutor("jdbc-writer-" + poolConfig.getPoolName(), getMaxConnections());
+        this.readExecutor = newExecutor("jdbc-reader-" + poolConfig.getPoolName(), getMaxConnections());
+    }
+
+    // no more threads than connections, extra tasks wait in queue, and idle
+    // threads go away so that cached ad-hoc datasources hold nothing
+    private static ExecutorService newExecutor(String name, int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    // maximum number of connections can be used at the same time
+    private int getMaxConnections() {
+        return this.datasource != null ? this.datasource.getMaximumPoolSize() : DEFAULT_MAX_POOL_SIZE;
+    }
+
+    private static HikariDataSource createAdhocPool(HikariConfig poolConfig) {
+        try {
+            return new HikariDataSource(poolConfig);
+        } catch (RuntimeException e) {
+            // for example, no suitable driver, let DriverManager tell what's wrong later
+            log.warn("Failed to create connection pool [{}] due to {}", poolConfig.getPoolName(), e.getMessage());
+            return null;
         }
     }
 
@@ -162,22 +253,72 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
     }
 
     protected final Statement createStatement(Connection conn, QueryParameters parameters) throws SQLException {
+        return createStatement(conn, parameters, false);
+    }
+
+    // fetch size alone is not enough for some drivers to stream query result, so
+    // let the dialect decide
+    private Statement createStatement(Connection conn, QueryParameters parameters, boolean pagingPushedDown)
+            throws SQLException {
         final Statement stmt;
 
         if (parameters == null) {
             stmt = conn.createStatement();
         } else {
-            boolean scrollable = parameters.getPosition() != 0;
+            boolean scrollable = !pagingPushedDown && parameters.getPosition() != 0;
             stmt = conn.createStatement(scrollable ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY,
                     ResultSet.CONCUR_READ_ONLY);
 
-            stmt.setFetchSize(parameters.getFetchSize());
-            stmt.setMaxRows(parameters.getMaxRows());
+            // rows to be skipped on client side count too
+            int maxRows = parameters.getMaxRows();
+            int skippedRows = pagingPushedDown ? 0 : getSkippedRows(parameters);
+            if (maxRows > 0 && skippedRows > 0) {
+                maxRows = (int) Math.min(Integer.MAX_VALUE, (long) maxRows + skippedRows);
+            }
+
+            getDialect(conn).configure(conn, stmt, parameters, scrollable);
+            stmt.setMaxRows(maxRows);
         }
 
         return stmt;
     }
 
+    // number of leading rows to skip, or 0 when it's unknown(negative position)
+    private static int getSkippedRows(QueryParameters parameters) {
+        int position = parameters.getPosition();
+        return position == 0 ? Math.max(parameters.getOffset(), 0) : Math.max(position, 0);
+    }
+
+    protected final ClickHouseJdbcDialect getDialect(Connection conn) {
+        if (this.dialect == null) {
+            ClickHouseJdbcDialect d = ClickHouseJdbcDialect.get(this.dialectName);
+            if (d == null && !this.dialectName.isEmpty()) {
+                log.warn("Dialect [{}] is not registered, detecting from connection instead", this.dialectName);
+            }
+
+            if (d == null) {
+                String url = this.jdbcUrl;
+                String productName = null;
+                try {
+                    DatabaseMetaData meta = conn.getMetaData();
+                    if (url == null) {
+                        url = meta.getURL();
+                    }
+                    productName = meta.getDatabaseProductName();
+                } catch (Exception e) {
+                    log.warn("Failed to get database metadata from connection due to {}", e.getMessage());
+                }
+
+                d = ClickHouseJdbcDialect.of(url, productName);
+            }
+
+            this.dialect = d;
+            log.info("Use dialect [{}] for datasource [{}]", this.dialect, this.getId());
+        }
+
+        return this.dialect;
+    }
+
     protected final PreparedStatement createPreparedStatement(Connection conn, String sql, QueryParameters parameters)
             throws SQLException {
         log.info("Mutation: {}", sql);
@@ -287,16 +428,108 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
         return super.isSavedQuery(file) || file.endsWith(QUERY_FILE_EXT);
     }
 
+    private static String escapePattern(String name, String escape) {
+        if (name == null || escape == null || escape.isEmpty()) {
+            return name;
+        }
+
+        StringBuilder sb = new StringBuilder(name.length() + 8);
+        for (int i = 0, len = name.length(); i < len; i++) {
+            char ch = name.charAt(i);
+            if (ch == '_' || ch == '%') {
+                sb.append(escape);
+            }
+            sb.append(ch);
+        }
+
+        return sb.toString();
+    }
+
+    private static String getCurrentSchema(Connection conn) {
+        try {
+            return conn.getSchema();
+        } catch (Exception | AbstractMethodError e) { // not supported by ancient drivers
+            return null;
+        }
+    }
+
+    // returns null when there's no such table, or more than one matched
+    private ClickHouseColumnList getColumns(DatabaseMetaData meta, String catalog, String schemaPattern,
+            String tablePattern) throws SQLException {
+        List<ClickHouseColumnInfo> columns = new ArrayList<>();
+        String matchedTable = null;
+
+        try (ResultSet rs = meta.getColumns(catalog, schemaPattern, tablePattern, null)) {
+            while (rs.next()) {
+                String table = new StringBuilder().append(rs.getString("TABLE_CAT")).append('.')
+                        .append(rs.getString("TABLE_SCHEM")).append('.').append(rs.getString("TABLE_NAME"))
+                        .toString();
+                if (matchedTable == null) {
+                    matchedTable = table;
+                } else if (!matchedTable.equals(table)) {
+                    log.debug("Found more than one table: [{}] and [{}]", matchedTable, table);
+                    return null;
+                }
+
+                // there's no signed flag in metadata, but type name usually tells
+                String typeName = rs.getString("TYPE_NAME");
+                boolean isSigned = typeName == null || typeName.toUpperCase().indexOf("UNSIGNED") == -1;
+
+                columns.add(new ClickHouseColumnInfo(rs.getString("COLUMN_NAME"),
+                        convert(rs.getInt("DATA_TYPE"), isSigned),
+                        DatabaseMetaData.columnNoNulls != rs.getInt("NULLABLE"), rs.getInt("COLUMN_SIZE"),
+                        rs.getInt("DECIMAL_DIGITS")));
+            }
+        }
+
+        return columns.isEmpty() ? null
+                : new ClickHouseColumnList(columns.toArray(new ClickHouseColumnInfo[columns.size()]));
+    }
+
+    // much faster than executing a query on engines like Hive, but returns null
+    // whenever the table cannot be located without ambiguity
+    protected ClickHouseColumnList inferColumnsFromMetadata(Connection conn, String schema, String table) {
+        long startTime = System.nanoTime();
+
+        ClickHouseColumnList columns = null;
+        try {
+            DatabaseMetaData meta = conn.getMetaData();
+            String escape = meta.getSearchStringEscape();
+            String tablePattern = escapePattern(table, escape);
+
+            if (schema != null && schema.length() > 0) {
+                columns = getColumns(meta, null, escapePattern(schema, escape), tablePattern);
+                if (columns == null) { // MySQL and alike use catalog instead of schema
+                    columns = getColumns(meta, schema, null, tablePattern);
+                }
+            } else {
+                columns = getColumns(meta, conn.getCatalog(), escapePattern(getCurrentSchema(conn), escape),
+                        tablePattern);
+            }
+        } catch (Exception e) {
+            log.debug("Failed to get columns of table [{}] from database metadata due to {}", table,
+                    e.getMessage());
+        } finally {
+            this.getMetrics().getMetadataColumnsTime().record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+
+        return columns;
+    }
+
     @Override
     protected ClickHouseColumnList inferColumns(String schema, String query) {
         log.debug("Inferring database columns: schema=[{}], query=[{}]", schema, query);
 
-        try (Connection conn = getConnection(); Statement stmt = createStatement(conn)) {
-            stmt.setMaxRows(1);
-            stmt.setFetchSize(1);
-
+        try (Connection conn = getConnection()) {
             // could be just a table name
             if (query != null && query.indexOf(' ') == -1) {
+                if (this.columnsFromMetadata) {
+                    ClickHouseColumnList columns = inferColumnsFromMetadata(conn, schema, query);
+                    if (columns != null) {
+                        return columns;
+                    }
+                }
+
                 StringBuilder sb = new StringBuilder().append(QUERY_TABLE_BEGIN);
                 String quote = this.getQuoteIdentifier();
                 if (schema != null && schema.length() > 0) {
@@ -305,6 +538,21 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
                 query = sb.append(quote).append(query).append(quote).append(QUERY_TABLE_END).toString();
             }
 
+            return inferColumnsFromQuery(conn, query);
+        } catch (SQLException e) {
+            throw new IllegalStateException("Failed to get columns definition from database", e);
+        } catch (RuntimeException e) {
+            throw e;
+        }
+
+        // return super.inferColumns(schema, query);
+    }
+
+    private ClickHouseColumnList inferColumnsFromQuery(Connection conn, String query) throws SQLException {
+        try (Statement stmt = createStatement(conn)) {
+            stmt.setMaxRows(1);
+            stmt.setFetchSize(1);
+
             // could be very slow...
             ResultSetMetaData meta = getFirstQueryResult(stmt, stmt.execute(query)).getMetaData();
 
@@ -343,13 +591,7 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
             }
 
             return new ClickHouseColumnList(columns);
-        } catch (SQLException e) {
-            throw new IllegalStateException("Failed to get columns definition from database", e);
-        } catch (RuntimeException e) {
-            throw e;
         }
-
-        // return super.inferColumns(schema, query);
     }
 
     protected final void stream(ResultSet rs, ClickHouseColumnInfo[] columns, QueryParameters params,
@@ -358,191 +600,55 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
         Objects.requireNonNull(columns);
         Objects.requireNonNull(writer);
 
-        int length = columns.length;
-        int estimatedSize = length * 4;
-        int indexOffset = 0;
-        int xLength = 0;
-        if (params.showDatasourceColumn()) {
-            xLength++;
-        }
-        if (params.showCustomColumns()) {
-            xLength += this.getCustomColumns().size();
-        }
-
-        length -= xLength;
-        estimatedSize += xLength * 4;
-        indexOffset += xLength;
+        ClickHouseRowCodec codec = ClickHouseRowCodec.forQuery(this.getId(), columns, params,
+                this.getDefaultValues(), this.getCustomColumns().size());
+        ClickHouseBlockWriter block = new ClickHouseBlockWriter(writer, this.getTimeZone(), columns);
+        DataSourceMetrics metrics = this.getMetrics();
+        long rowCount = 0L;
 
         while (rs.next()) {
-            ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(estimatedSize, this.getTimeZone());
-            if (params.showDatasourceColumn()) {
-                buffer.writeNonNull().writeString(this.getId());
+            if (writer.isCancelled()) {
+                throw new IllegalStateException("Query was cancelled");
             }
-            if (params.showCustomColumns()) {
-                for (int i = params.showDatasourceColumn() ? 1 : 0; i < xLength; i++) {
-                    columns[i].writeValueTo(buffer);
-                }
-            }
-
-            for (int i = 1; i <= length; i++) {
-                ClickHouseColumnInfo column = columns[i - 1 + indexOffset];
-                // keep in mind that column index is zero-based
-                int index = column.isIndexed() ? column.getIndex() + 1 : i;
-
-                if (column.isNullable()) {
-                    if (rs.getObject(index) == null || rs.wasNull()) {
-                        if (params.nullAsDefault()) {
-                            // column.writeValueTo(buffer);
-                            buffer.writeNonNull().writeDefaultValue(column, this.getDefaultValues());
-                        } else {
-                            buffer.writeNull();
-                        }
-                        continue;
-                    } else {
-                        buffer.writeNonNull();
-                    }
-                }
 
-                switch (column.getType()) {
-                    case Int8:
-                        buffer.writeInt8(rs.getInt(index));
-                        break;
-                    case Int16:
-                        buffer.writeInt16(rs.getInt(index));
-                        break;
-                    case Int32:
-                        buffer.writeInt32(rs.getInt(index));
-                        break;
-                    case Int64:
-                        buffer.writeInt64(rs.getLong(index));
-                        break;
-                    case UInt8:
-                        buffer.writeUInt8(rs.getInt(index));
-                        break;
-                    case UInt16:
-                        buffer.writeUInt16(rs.getInt(index));
-                        break;
-                    case UInt32:
-                        buffer.writeUInt32(rs.getLong(index));
-                        break;
-                    case UInt64:
-                        buffer.writeUInt64(rs.getLong(index));
-                        break;
-                    case Float32:
-                        buffer.writeFloat32(rs.getFloat(index));
-                        break;
-                    case Float64:
-                        buffer.writeFloat64(rs.getDouble(index));
-                        break;
-                    case Date:
-                        buffer.writeDate(rs.getDate(index));
-                        break;
-                    case DateTime:
-                        buffer.writeDateTime(rs.getTimestamp(index), column.getTimeZone());
-                        break;
-                    case DateTime64:
-                        buffer.writeDateTime64(rs.getTimestamp(index), column.getTimeZone());
-                        break;
-                    case Decimal:
-                        buffer.writeDecimal(rs.getBigDecimal(index), column.getPrecision(), column.getScale());
-                        break;
-                    case Decimal32:
-                        buffer.writeDecimal32(rs.getBigDecimal(index), column.getScale());
-                        break;
-                    case Decimal64:
-                        buffer.writeDecimal64(rs.getBigDecimal(index), column.getScale());
-                        break;
-                    case Decimal128:
-                        buffer.writeDecimal128(rs.getBigDecimal(index), column.getScale());
-                        break;
-                    case String:
-                    default:
-                        buffer.writeString(rs.getString(index), params.nullAsDefault());
-                        break;
-                }
+            if (rowCount++ == 0L) {
+                metrics.getFirstRowTime().record(System.nanoTime() - writer.getStartTime(), TimeUnit.NANOSECONDS);
             }
 
-            writer.write(buffer);
+            codec.encode(rs, block);
+            block.endRow();
         }
+
+        block.flush();
+
+        metrics.getStreamedRows().record(rowCount);
+        metrics.getStreamedBytes().record(writer.getWrittenBytes());
     }
 
-    protected final void write(PreparedStatement stmt, ClickHouseColumnInfo[] cols, QueryParameters params,
-            ClickHouseBuffer buffer) throws SQLException {
-        for (int i = 1; i <= cols.length; i++) {
-            ClickHouseColumnInfo info = cols[i - 1];
-            if (info.isNullable() && buffer.readNull()) {
-                // stmt.setNull(i, info.getT);
-                stmt.setString(i, null);
-                continue;
-            }
+    // stop running query and make sure the connection won't be reused as is
+    protected final void cancel(Connection conn, Statement stmt) {
+        log.info("Cancelling query...");
 
-            switch (info.getType()) {
-                case Int8:
-                    stmt.setByte(i, buffer.readInt8());
-                    break;
-                case Int16:
-                    stmt.setShort(i, buffer.readInt16());
-                    break;
-                case Int32:
-                    stmt.setInt(i, buffer.readInt32());
-                    break;
-                case Int64:
-                    stmt.setLong(i, buffer.readInt64());
-                    break;
-                case UInt8:
-                    stmt.setInt(i, buffer.readUInt8());
-                    break;
-                case UInt16:
-                    stmt.setInt(i, buffer.readUInt8());
-                    break;
-                case UInt32:
-                    stmt.setLong(i, buffer.readUInt32());
-                    break;
-                case UInt64:
-                    stmt.setString(i, buffer.readUInt64().toString(10));
-                    break;
-                case Float32:
-                    stmt.setFloat(i, buffer.readFloat32());
-                    break;
-                case Float64:
-                    stmt.setDouble(i, buffer.readFloat64());
-                    break;
-                case Date:
-                    stmt.setDate(i, buffer.readDate());
-                    break;
-                case DateTime:
-                    stmt.setTimestamp(i, buffer.readDateTime(info.getTimeZone()));
-                    break;
-                case DateTime64:
-                    stmt.setTimestamp(i, buffer.readDateTime64(info.getTimeZone()));
-                    break;
-                case Decimal:
-                    stmt.setBigDecimal(i, buffer.readDecimal(info.getPrecision(), info.getScale()));
-                    break;
-                case Decimal32:
-                    stmt.setBigDecimal(i, buffer.readDecimal32(info.getScale()));
-                    break;
-                case Decimal64:
-                    stmt.setBigDecimal(i, buffer.readDecimal64(info.getScale()));
-                    break;
-                case Decimal128:
-                    stmt.setBigDecimal(i, buffer.readDecimal128(info.getScale()));
-                    break;
-
-                case String:
-                    stmt.setString(i, buffer.readString());
-                    break;
-                default:
-                    break;
-            }
+        try {
+            stmt.cancel();
+        } catch (Exception e) {
+            log.warn("Failed to cancel statement, about to abort connection", e);
 
+            try {
+                conn.abort(Runnable::run);
+            } catch (Exception ex) {
+                log.warn("Failed to abort connection", ex);
+            }
         }
     }
 
-    private int executeBatch(PreparedStatement stmt) throws SQLException {
+    final int executeBatch(PreparedStatement stmt) throws SQLException {
         int mutationCount = 0;
 
+        long startTime = System.nanoTime();
         int[] results = stmt.executeBatch();
+        this.getMetrics().getWriteBatchTime().record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+
         for (int i = 0; i < results.length; i++) {
             mutationCount += i;
         }
@@ -551,6 +657,43 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
         return mutationCount;
     }
 
+    @Override
+    protected int getDefaultWorkerPoolSize() {
+        // one thread per connection
+        return this.datasource != null ? this.datasource.getMaximumPoolSize() : 0;
+    }
+
+    @Override
+    public void warmUp() {
+        if (this.datasource == null) {
+            return;
+        }
+
+        // hold minimumIdle connections at the same time, so that the pool has to
+        // establish them all before serving the first request
+        int size = Math.min(this.datasource.getMinimumIdle(), this.datasource.getMaximumPoolSize());
+        List<Connection> conns = new ArrayList<>(size);
+        long startTime = System.nanoTime();
+        try {
+            for (int i = 0; i < size; i++) {
+                conns.add(this.datasource.getConnection());
+            }
+        } catch (SQLException e) {
+            log.warn("Failed to warm up datasource [{}] due to {}", this.getId(), e.getMessage());
+        } finally {
+            for (Connection conn : conns) {
+                try {
+                    conn.close();
+                } catch (Exception e) {
+                    // ignore
+                }
+            }
+        }
+
+        log.info("Warmed up datasource [{}] with {} connections in {}ms", this.getId(), conns.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+    }
+
     @Override
     public final String getType() {
         return DATASOURCE_TYPE;
@@ -584,8 +727,54 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
         // String queryId = params.dedupQuery() ? this.generateUniqueQueryId(query) :
         // null;
 
-        try (Connection conn = getConnection(); Statement stmt = createStatement(conn, params)) {
-            stream(getFirstQueryResult(stmt, stmt.execute(query)), columns.getColumns(), params, writer);
+        long startTime = System.nanoTime();
+        try {
+            List<String> partitions = splitQuery(query, params);
+            if (partitions == null) {
+                executeSingleQuery(query, columns, params, writer);
+            } else {
+                log.info("Executing SQL in {} partitions by column [{}]", partitions.size(),
+                        params.getPartitionColumn());
+                new ClickHousePartitionedReader(this, partitions, columns.getColumns(), params, writer,
+                        this.readExecutor).read();
+            }
+        } catch (SQLException e) {
+            if (writer.isCancelled()) {
+                throw new IllegalStateException("Query was cancelled", e);
+            }
+
+            throw new IllegalStateException("Failed to execute SQL", e);
+        } finally {
+            this.getMetrics().getQueryTime().record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void executeSingleQuery(String query, ClickHouseColumnList columns, QueryParameters params,
+            ClickHouseResponseWriter writer) throws SQLException {
+        try (Connection conn = getConnection()) {
+            // let the database skip and limit rows when possible, instead of
+            // transferring rows just to discard them
+            String pagedQuery = params.getPosition() < 0 ? null
+                    : getDialect(conn).limit(query, getSkippedRows(params), params.getMaxRows());
+            boolean pagingPushedDown = pagedQuery != null;
+            if (pagingPushedDown) {
+                log.debug("Rewrote SQL for paging:\n{}", pagedQuery);
+            }
+
+            try (Statement stmt = createStatement(conn, params, pagingPushedDown)) {
+                Handler<Void> cancelHandler = v -> cancel(conn, stmt);
+                writer.addCancelHandler(cancelHandler);
+
+                try {
+                    ResultSet rs = getFirstQueryResult(stmt, stmt.execute(pagingPushedDown ? pagedQuery : query));
+                    if (!pagingPushedDown) {
+                        skipRows(rs, params);
+                    }
+                    stream(rs, columns.getColumns(), params, writer);
+                } finally {
+                    writer.removeCancelHandler(cancelHandler);
+                }
+            }
             /*
              * if (stmt.execute(query)) { // TODO multiple resultsets
              * 
@@ -595,14 +784,112 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
              * )); } else { throw new IllegalStateException(
              * "Not able to handle query result due to incompatible columns: " + columns); }
              */
-        } catch (SQLException e) {
-            throw new IllegalStateException("Failed to execute SQL", e);
         }
     }
 
+    /**
+     * Split query into non-overlapping range predicates on the partition column,
+     * which has to be an integer column. Rows with null partition column go to
+     * the first partition. Each partition is executed on its own connection, so
+     * they do not share a consistent snapshot of the data.
+     *
+     * @param query  query
+     * @param params query parameters
+     * @return queries, one for each partition, or null if the query should not
+     *         be partitioned
+     * @throws SQLException when failed to get range of the partition column
+     */
+    private List<String> splitQuery(String query, QueryParameters params) throws SQLException {
+        String column = params.getPartitionColumn();
+        // one connection per partition
+        int partitions = Math.min(params.getPartitions(), getMaxConnections());
+
+        // row limit and scrolling only make sense for a single result set
+        if (partitions <= 1 || column.isEmpty() || params.getMaxRows() > 0 || params.getOffset() > 0
+                || params.getPosition() != 0) {
+            return null;
+        }
+
+        String quote = this.getQuoteIdentifier();
+        column = new StringBuilder().append(PARTITION_ALIAS).append('.').append(quote).append(column).append(quote)
+                .toString();
+        // line breaks in case the query ends with a comment
+        String subquery = new StringBuilder().append(" FROM (\n").append(query).append("\n) ")
+                .append(PARTITION_ALIAS).toString();
+
+        long min;
+        long max;
+        try (Connection conn = getConnection(); Statement stmt = createStatement(conn);
+                ResultSet rs = stmt.executeQuery(new StringBuilder().append("SELECT MIN(").append(column)
+                        .append("), MAX(").append(column).append(')').append(subquery).toString())) {
+            if (!rs.next()) {
+                return null;
+            }
+
+            min = rs.getLong(1);
+            max = rs.getLong(2);
+            if (rs.wasNull()) { // empty or all nulls
+                return null;
+            }
+        }
+
+        long step;
+        try {
+            long span = Math.addExact(Math.subtractExact(max, min), 1L);
+            if (span < partitions) {
+                partitions = (int) span;
+            }
+            step = span / partitions + (span % partitions == 0 ? 0L : 1L);
+            // for example, span 5 in 4 partitions becomes 3 partitions of step 2,
+            // so that upper bound of non-last partitions never goes beyond max
+            partitions = (int) (span / step + (span % step == 0 ? 0L : 1L));
+        } catch (ArithmeticException e) {
+            log.warn("Range of partition column [{}] is too large, not going to split query", column);
+            return null;
+        }
+
+        if (partitions <= 1) {
+            return null;
+        }
+
+        String select = "SELECT " + PARTITION_ALIAS + ".*" + subquery + " WHERE ";
+        List<String> queries = new ArrayList<>(partitions);
+        long lower = min;
+        for (int i = 0; i < partitions; i++) {
+            StringBuilder sb = new StringBuilder().append(select);
+            // last partition has no upper bound, which may not fit in long
+            long upper = i == partitions - 1 ? max : lower + step;
+
+            if (i == 0) {
+                sb.append(column).append(" < ").append(upper).append(" OR ").append(column).append(" IS NULL");
+            } else if (i == partitions - 1) {
+                sb.append(column).append(" >= ").append(lower);
+            } else {
+                sb.append(column).append(" >= ").append(lower).append(" AND ").append(column).append(" < ")
+                        .append(upper);
+            }
+
+            queries.add(sb.toString());
+            lower = upper;
+        }
+
+        return queries;
+    }
+
     @Override
     public void executeUpdate(String schema, String table, ClickHouseColumnList columns, QueryParameters params,
             ClickHouseBuffer buffer) {
+        executeUpdate(schema, table, columns, params, null, buffer);
+    }
+
+    @Override
+    public void executeUpdate(String schema, String table, ClickHouseColumnList columns, QueryParameters params,
+            ClickHouseRequestReader reader) {
+        executeUpdate(schema, table, columns, params, Objects.requireNonNull(reader), null);
+    }
+
+    private void executeUpdate(String schema, String table, ClickHouseColumnList columns, QueryParameters params,
+            ClickHouseRequestReader reader, ClickHouseBuffer buffer) {
         log.info("Executing mutation: schema=[{}], table=[{}]", schema, table);
 
         StringBuilder sql = new StringBuilder();
@@ -613,50 +900,119 @@ public class ClickHouseJdbcDataSource extends ClickHouseDataSource {
         sql.append(table).append(" VALUES(?");
 
         final ClickHouseColumnInfo[] cols = columns.getColumns();
+        final ClickHouseRowCodec codec = ClickHouseRowCodec.forMutation(cols);
         for (int i = 1; i < cols.length; i++) {
             sql.append(',').append('?');
         }
         sql.append(')');
 
         int batchSize = params.getBatchSize();
+        int writeThreads = params.getWriteThreads();
+        if (writeThreads > 0) {
+            // no point to have more threads than connections
+            writeThreads = Math.min(writeThreads, getMaxConnections());
+
+            executeUpdate(sql.toString(), cols, codec, params, reader, buffer, writeThreads);
+            return;
+        }
+
         int rowCount = 0;
 
         int mutationCount = 0;
+        long startTime = System.nanoTime();
+        long executionTime = 0L;
 
         try (Connection conn = getConnection();
                 PreparedStatement stmt = createPreparedStatement(conn, sql.toString(), params)) {
             int counter = 0;
-            while (!buffer.isExausted()) {
-                write(stmt, cols, params, buffer);
-                rowCount++;
-
-                if (batchSize <= 0) {
-                    mutationCount += stmt.executeUpdate();
-                } else {
-                    stmt.addBatch();
-
-                    if (++counter >= batchSize) {
-                        mutationCount += this.executeBatch(stmt);
-                        counter = 0;
+            // decode rows as soon as they arrived, when reading from a stream
+            if (reader != null) {
+                buffer = reader.read(null);
+            }
+
+            while (buffer != null) {
+                while (reader != null ? buffer.hasCompleteRow(cols) : !buffer.isExausted()) {
+                    codec.bind(stmt, buffer);
+                    rowCount++;
+
+                    if (batchSize <= 0) {
+                        long executionStartTime = System.nanoTime();
+                        mutationCount += stmt.executeUpdate();
+                        executionTime += System.nanoTime() - executionStartTime;
+                    } else {
+                        stmt.addBatch();
+
+                        if (++counter >= batchSize) {
+                            long executionStartTime = System.nanoTime();
+                            mutationCount += this.executeBatch(stmt);
+                            executionTime += System.nanoTime() - executionStartTime;
+                            counter = 0;
+                        }
                     }
                 }
+
+                buffer = reader != null ? reader.read(buffer) : null;
             }
 
             if (batchSize > 0 && counter > 0) {
+                long executionStartTime = System.nanoTime();
                 mutationCount += this.executeBatch(stmt);
+                executionTime += System.nanoTime() - executionStartTime;
             }
 
-            log.info("Mutation status(batchSize={}): inputRows={}, effectedRows={}", batchSize, rowCount,
-                    mutationCount);
+            long elapsedTime = System.nanoTime() - startTime;
+            log.info(
+                    "Mutation status(batchSize={}): inputRows={}, effectedRows={}, decodeTime={}ms, executeTime={}ms",
+                    batchSize, rowCount, mutationCount, TimeUnit.NANOSECONDS.toMillis(elapsedTime - executionTime),
+                    TimeUnit.NANOSECONDS.toMillis(executionTime));
         } catch (SQLException e) {
             throw new IllegalStateException("Failed to execute SQL", e);
         }
     }
 
+    // decode rows on current thread while executing batches on other threads
+    private void executeUpdate(String sql, ClickHouseColumnInfo[] cols, ClickHouseRowCodec codec,
+            QueryParameters params, ClickHouseRequestReader reader, ClickHouseBuffer buffer, int writeThreads) {
+        int rowCount = 0;
+        long startTime = System.nanoTime();
+
+        ClickHouseBatchPipeline pipeline = new ClickHouseBatchPipeline(this, sql, codec, params,
+                this.writeExecutor, writeThreads);
+        try {
+            if (reader != null) {
+                buffer = reader.read(null);
+            }
+
+            while (buffer != null) {
+                while (reader != null ? buffer.hasCompleteRow(cols) : !buffer.isExausted()) {
+                    pipeline.add(codec.decode(buffer));
+                    rowCount++;
+                }
+
+                buffer = reader != null ? reader.read(buffer) : null;
+            }
+        } catch (RuntimeException e) {
+            pipeline.abort();
+            throw e;
+        }
+
+        long decodeTime = System.nanoTime() - startTime - pipeline.getWaitTime();
+        int mutationCount = pipeline.finish();
+
+        log.info(
+                "Mutation status(batchSize={}, writeThreads={}): inputRows={}, effectedRows={}, decodeTime={}ms, executeTime={}ms, waitTime={}ms",
+                params.getBatchSize(), writeThreads, rowCount, mutationCount,
+                TimeUnit.NANOSECONDS.toMillis(decodeTime), TimeUnit.NANOSECONDS.toMillis(pipeline.getExecutionTime()),
+                TimeUnit.NANOSECONDS.toMillis(pipeline.getWaitTime()));
+    }
+
     @Override
     public void close() throws IOException {
         super.close();
 
+        this.writeExecutor.shutdown();
+        this.readExecutor.shutdown();
+
         if (this.datasource != null) {
             this.datasource.close();
         }
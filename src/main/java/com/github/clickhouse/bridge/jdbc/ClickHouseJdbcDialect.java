@@ -0,0 +1,310 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.clickhouse.bridge.core.QueryParameters;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * SQL dialect of a JDBC datasource, which knows how to limit rows on server
+ * side, and how to configure connection and statement so that the driver
+ * streams query result instead of loading all rows into memory. Additional
+ * dialects can be registered by sub-protocol of JDBC url, using
+ * {@link #register(String, ClickHouseJdbcDialect)} or
+ * {@link #registerTypes(JsonObject)}.
+ */
+public class ClickHouseJdbcDialect {
+    private static final org.slf4j.Logger log = org.slf4j.LoggerFactory.getLogger(ClickHouseJdbcDialect.class);
+
+    /**
+     * Syntax for limiting rows.
+     */
+    public enum Paging {
+        /**
+         * Not supported, rows will be skipped on client side.
+         */
+        NONE,
+        /**
+         * {@code LIMIT n OFFSET m}.
+         */
+        LIMIT_OFFSET,
+        /**
+         * {@code OFFSET m ROWS FETCH FIRST n ROWS ONLY}, as defined in SQL:2008.
+         */
+        OFFSET_FETCH
+    }
+
+    /**
+     * MySQL Connector/J loads all rows into memory, unless fetch size is
+     * {@link Integer#MIN_VALUE}, or {@code useCursorFetch=true} is specified in
+     * JDBC url.
+     */
+    static class MySqlDialect extends ClickHouseJdbcDialect {
+        private static final String PROP_CURSOR_FETCH = "usecursorfetch=true";
+
+        public MySqlDialect() {
+            super("mysql", Paging.LIMIT_OFFSET);
+        }
+
+        @Override
+        public void configure(Connection conn, Statement stmt, QueryParameters params, boolean scrollable)
+                throws SQLException {
+            int fetchSize = params.getFetchSize();
+            if (fetchSize > 0 && !scrollable) {
+                String url = conn.getMetaData().getURL();
+                if (url == null || url.toLowerCase(Locale.ROOT).indexOf(PROP_CURSOR_FETCH) == -1) {
+                    // stream rows one by one
+                    fetchSize = Integer.MIN_VALUE;
+                }
+            }
+
+            stmt.setFetchSize(fetchSize);
+        }
+    }
+
+    /**
+     * PostgreSQL JDBC driver ignores fetch size and loads all rows into memory,
+     * unless auto commit is disabled.
+     */
+    static class PostgreSqlDialect extends ClickHouseJdbcDialect {
+        public PostgreSqlDialect() {
+            super("postgresql", Paging.LIMIT_OFFSET);
+        }
+
+        @Override
+        public void configure(Connection conn, Statement stmt, QueryParameters params, boolean scrollable)
+                throws SQLException {
+            super.configure(conn, stmt, params, scrollable);
+
+            if (params.getFetchSize() > 0 && !scrollable) {
+                // the transaction is rolled back when connection is returned to the pool,
+                // and auto commit will be enabled again in getConnection
+                conn.setAutoCommit(false);
+            }
+        }
+    }
+
+    private static final String QUERY_PREFIX = "select";
+    private static final String SUBQUERY_ALIAS = "t";
+
+    public static final ClickHouseJdbcDialect DEFAULT = new ClickHouseJdbcDialect("default", Paging.NONE);
+
+    // sub-protocol in JDBC url -> dialect
+    private static final Map<String, ClickHouseJdbcDialect> dialects = new ConcurrentHashMap<>();
+
+    static {
+        ClickHouseJdbcDialect limitOffset = new ClickHouseJdbcDialect("limit-offset", Paging.LIMIT_OFFSET);
+        for (String protocol : new String[] { "ch", "clickhouse", "h2", "hsqldb", "mariadb", "sqlite" }) {
+            dialects.put(protocol, limitOffset);
+        }
+
+        ClickHouseJdbcDialect offsetFetch = new ClickHouseJdbcDialect("offset-fetch", Paging.OFFSET_FETCH);
+        for (String protocol : new String[] { "db2", "derby" }) {
+            dialects.put(protocol, offsetFetch);
+        }
+
+        dialects.put("mysql", new MySqlDialect());
+        dialects.put("postgresql", new PostgreSqlDialect());
+    }
+
+    /**
+     * Register a dialect for the given sub-protocol, replacing existing one if
+     * any.
+     *
+     * @param protocol sub-protocol in JDBC url, for example {@code postgresql}
+     * @param dialect  dialect
+     */
+    public static void register(String protocol, ClickHouseJdbcDialect dialect) {
+        dialects.put(Objects.requireNonNull(protocol).toLowerCase(Locale.ROOT), Objects.requireNonNull(dialect));
+    }
+
+    /**
+     * Register dialects defined in the given configuration, which maps
+     * sub-protocol to class name. The class must have a public no-arg
+     * constructor.
+     *
+     * @param config configuration, could be null
+     */
+    public static void registerTypes(JsonObject config) {
+        if (config == null) {
+            return;
+        }
+
+        for (Entry<String, Object> entry : config) {
+            String protocol = entry.getKey();
+            Object value = entry.getValue();
+            if (!(value instanceof String)) {
+                continue;
+            }
+
+            log.info("Registering new dialect: [{}] -> [{}]", protocol, value);
+
+            try {
+                Class<?> clazz = ClickHouseJdbcDialect.class.getClassLoader().loadClass((String) value);
+                register(protocol, (ClickHouseJdbcDialect) clazz.getConstructor().newInstance());
+            } catch (Exception e) {
+                log.error("Failed to register new dialect", e);
+            }
+        }
+    }
+
+    /**
+     * Get registered dialect.
+     *
+     * @param protocol sub-protocol in JDBC url
+     * @return dialect, or null if not found
+     */
+    public static ClickHouseJdbcDialect get(String protocol) {
+        return protocol == null ? null : dialects.get(protocol.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Get dialect based on sub-protocol of the given JDBC url.
+     *
+     * @param url JDBC url
+     * @return dialect, {@link #DEFAULT} if the url is unknown
+     */
+    public static ClickHouseJdbcDialect of(String url) {
+        return of(url, null);
+    }
+
+    /**
+     * Get dialect based on sub-protocol of the given JDBC url, or the database
+     * product name when the url is unknown, for instance, a proxy driver is used.
+     *
+     * @param url         JDBC url
+     * @param productName database product name from {@link java.sql.DatabaseMetaData}
+     * @return dialect, {@link #DEFAULT} if both are unknown
+     */
+    public static ClickHouseJdbcDialect of(String url, String productName) {
+        ClickHouseJdbcDialect dialect = null;
+
+        // jdbc:<sub-protocol>:...
+        int index = url == null ? -1 : url.indexOf(':');
+        if (index > 0) {
+            int end = url.indexOf(':', index + 1);
+            if (end > index) {
+                dialect = get(url.substring(index + 1, end));
+            }
+        }
+
+        if (dialect == null && productName != null) {
+            // for example: "PostgreSQL", "MySQL" and "Apache Derby"
+            String name = productName.toLowerCase(Locale.ROOT);
+            for (Entry<String, ClickHouseJdbcDialect> entry : dialects.entrySet()) {
+                if (name.equals(entry.getKey()) || name.endsWith(" " + entry.getKey())) {
+                    dialect = entry.getValue();
+                    break;
+                }
+            }
+        }
+
+        return dialect == null ? DEFAULT : dialect;
+    }
+
+    private final String name;
+    private final Paging paging;
+
+    protected ClickHouseJdbcDialect(String name, Paging paging) {
+        this.name = Objects.requireNonNull(name);
+        this.paging = Objects.requireNonNull(paging);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Paging getPaging() {
+        return this.paging;
+    }
+
+    /**
+     * Configure connection and statement before executing a query. By default,
+     * it only sets fetch size of the statement.
+     *
+     * @param conn       connection
+     * @param stmt       statement created from the connection
+     * @param params     query parameters
+     * @param scrollable whether the statement is scrollable
+     * @throws SQLException when failed to configure
+     */
+    public void configure(Connection conn, Statement stmt, QueryParameters params, boolean scrollable)
+            throws SQLException {
+        stmt.setFetchSize(params.getFetchSize());
+    }
+
+    /**
+     * Rewrite the given query by wrapping it as a subquery, so that the database
+     * only returns rows in the range.
+     *
+     * @param query   query
+     * @param offset  number of rows to skip, zero means no skipping
+     * @param maxRows maximum number of rows to return, zero means no limit
+     * @return rewritten query, or null if it's not supported
+     */
+    public String limit(String query, int offset, int maxRows) {
+        if (this.paging == Paging.NONE || query == null || offset < 0 || maxRows < 0
+                || (offset == 0 && maxRows == 0)) {
+            return null;
+        }
+
+        // multiple statements, or not even a query
+        String trimmed = query.trim();
+        if (trimmed.indexOf(';') != -1 || trimmed.length() < QUERY_PREFIX.length()
+                || !trimmed.regionMatches(true, 0, QUERY_PREFIX, 0, QUERY_PREFIX.length())) {
+            return null;
+        }
+
+        // line breaks in case the query ends with a comment
+        StringBuilder sb = new StringBuilder(trimmed.length() + 64).append("SELECT * FROM (\n").append(trimmed)
+                .append("\n) ").append(SUBQUERY_ALIAS);
+
+        if (this.paging == Paging.LIMIT_OFFSET) {
+            // some databases do not support OFFSET without LIMIT
+            sb.append(" LIMIT ").append(maxRows > 0 ? maxRows : Long.MAX_VALUE);
+            if (offset > 0) {
+                sb.append(" OFFSET ").append(offset);
+            }
+        } else {
+            sb.append(" OFFSET ").append(offset).append(" ROWS");
+            if (maxRows > 0) {
+                sb.append(" FETCH FIRST ").append(maxRows).append(" ROWS ONLY");
+            }
+        }
+
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.jdbc;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.github.clickhouse.bridge.core.ClickHouseBlockWriter;
+import com.github.clickhouse.bridge.core.ClickHouseBuffer;
+import com.github.clickhouse.bridge.core.ClickHouseColumnInfo;
+import com.github.clickhouse.bridge.core.ClickHouseResponseWriter;
+import com.github.clickhouse.bridge.core.DataSourceMetrics;
+import com.github.clickhouse.bridge.core.QueryParameters;
+
+import io.vertx.core.Handler;
+
+/**
+ * This class executes partitions of a query concurrently, each on its own
+ * connection. Encoded blocks are put into a bounded queue, from which the
+ * calling thread takes and writes them into response as they come, so rows
+ * from different partitions are interleaved.
+ */
+final class ClickHousePartitionedReader {
+    private static final ClickHouseBuffer END_OF_PARTITION = ClickHouseBuffer.newInstance(0);
+
+    private static final long POLL_INTERVAL_MS = 1000L;
+
+    private final ClickHouseJdbcDataSource datasource;
+    private final ClickHouseColumnInfo[] columns;
+    private final QueryParameters params;
+    private final ClickHouseResponseWriter writer;
+
+    private final BlockingQueue<ClickHouseBuffer> queue;
+    private final List<Future<Long>> workers;
+    private final Set<Handler<Void>> cancelHandlers = ConcurrentHashMap.newKeySet();
+
+    // the first failure, as other partitions will fail after being cancelled
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private volatile boolean aborted = false;
+
+    ClickHousePartitionedReader(ClickHouseJdbcDataSource datasource, List<String> queries,
+            ClickHouseColumnInfo[] columns, QueryParameters params, ClickHouseResponseWriter writer,
+            ExecutorService executor) {
+        this.datasource = datasource;
+        this.columns = columns;
+        this.params = params;
+        this.writer = writer;
+
+        // a couple of blocks per partition, so that memory usage is bounded
+        // regardless of how slow the client is
+        this.queue = new ArrayBlockingQueue<>(queries.size() * 2);
+        this.workers = new ArrayList<>(queries.size());
+
+        for (String query : queries) {
+            this.workers.add(executor.submit(() -> execute(query)));
+        }
+    }
+
+    private Long execute(String query) throws SQLException {
+        long rowCount = 0L;
+
+        try (Connection conn = this.datasource.getConnection();
+                Statement stmt = this.datasource.createStatement(conn, this.params)) {
+            Handler<Void> cancelHandler = v -> this.datasource.cancel(conn, stmt);
+            this.writer.addCancelHandler(cancelHandler);
+            this.cancelHandlers.add(cancelHandler);
+
+            try {
+                ResultSet rs = this.datasource.getFirstQueryResult(stmt, stmt.execute(query));
+                ClickHouseRowCodec codec = ClickHouseRowCodec.forQuery(this.datasource.getId(), this.columns,
+                        this.params, this.datasource.getDefaultValues(), this.datasource.getCustomColumns().size());
+                ClickHouseBlockWriter block = new ClickHouseBlockWriter(this.writer.getOptions(),
+                        this.datasource.getTimeZone(), this.columns, this::enqueue);
+
+                while (!this.aborted && rs.next()) {
+                    codec.encode(rs, block);
+                    block.endRow();
+                    rowCount++;
+                }
+
+                block.flush();
+            } finally {
+                this.cancelHandlers.remove(cancelHandler);
+                this.writer.removeCancelHandler(cancelHandler);
+            }
+        } catch (SQLException | RuntimeException e) {
+            this.failure.compareAndSet(null, e);
+            this.aborted = true;
+            throw e;
+        } finally {
+            enqueue(END_OF_PARTITION);
+        }
+
+        return rowCount;
+    }
+
+    private void enqueue(ClickHouseBuffer block) {
+        try {
+            while (!this.aborted && !this.queue.offer(block, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                // check again
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.aborted = true;
+        }
+    }
+
+    void abort() {
+        this.aborted = true;
+        // release blocked threads
+        this.queue.clear();
+
+        // no point to wait for other partitions
+        for (Handler<Void> handler : this.cancelHandlers) {
+            handler.handle(null);
+        }
+    }
+
+    /**
+     * Write blocks from all partitions into response, until all of them are
+     * completed.
+     */
+    void read() {
+        DataSourceMetrics metrics = this.datasource.getMetrics();
+        int remaining = this.workers.size();
+        boolean firstBlock = true;
+
+        try {
+            while (remaining > 0 && !this.aborted) {
+                ClickHouseBuffer block = this.queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (block == END_OF_PARTITION) {
+                    remaining--;
+                } else if (block != null) {
+                    if (firstBlock) {
+                        metrics.getFirstRowTime().record(System.nanoTime() - this.writer.getStartTime(),
+                                TimeUnit.NANOSECONDS);
+                        firstBlock = false;
+                    }
+
+                    this.writer.write(block);
+                } else if (this.writer.isCancelled()) {
+                    abort();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+        } catch (RuntimeException e) {
+            abort();
+            throw e;
+        }
+
+        if (this.aborted) {
+            abort();
+        }
+
+        metrics.getStreamedRows().record(join());
+        metrics.getStreamedBytes().record(this.writer.getWrittenBytes());
+    }
+
+    long join() {
+        Throwable error = this.failure.get();
+        long rowCount = 0L;
+
+        for (Future<Long> worker : this.workers) {
+            try {
+                rowCount += worker.get();
+            } catch (ExecutionException e) {
+                if (error == null) {
+                    error = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abort();
+                throw new IllegalStateException("Interrupted while waiting for query to complete", e);
+            }
+        }
+
+        if (this.writer.isCancelled()) {
+            throw new IllegalStateException("Query was cancelled", error);
+        } else if (error != null) {
+            throw new IllegalStateException("Failed to execute SQL", error);
+        } else if (this.aborted) {
+            throw new IllegalStateException("Query was aborted");
+        }
+
+        return rowCount;
+    }
+}
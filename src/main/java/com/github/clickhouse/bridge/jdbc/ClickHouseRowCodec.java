@@ -0,0 +1,1043 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.jdbc;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Objects;
+import java.util.TimeZone;
+
+import com.github.clickhouse.bridge.core.ClickHouseBlockWriter;
+import com.github.clickhouse.bridge.core.ClickHouseBuffer;
+import com.github.clickhouse.bridge.core.ClickHouseColumnInfo;
+import com.github.clickhouse.bridge.core.ClickHouseColumnVector;
+import com.github.clickhouse.bridge.core.ClickHouseNativeBlock;
+import com.github.clickhouse.bridge.core.DefaultValues;
+import com.github.clickhouse.bridge.core.QueryParameters;
+
+/**
+ * Row codec plan compiled once per query or mutation. Type, nullability,
+ * column index and query parameters are resolved up front into one specialized
+ * codec per column, so that converting a row is merely a loop over the codecs,
+ * without evaluating the same conditions for every cell.
+ */
+final class ClickHouseRowCodec {
+    abstract static class ColumnCodec {
+        // one-based index in ResultSet or PreparedStatement
+        final int index;
+
+        ColumnCodec(int index) {
+            this.index = index;
+        }
+
+        // ResultSet -> RowBinary
+        abstract void encode(ResultSet rs, ClickHouseBuffer buffer) throws SQLException;
+
+        // ResultSet -> RowBinary with non-null flag, returns false without writing anything when it's null
+        abstract boolean encodeNonNull(ResultSet rs, ClickHouseBuffer buffer) throws SQLException;
+
+        // ResultSet -> column vector, returns false without appending anything when it's null
+        abstract boolean read(ResultSet rs, ClickHouseColumnVector vector) throws SQLException;
+
+        // ResultSet -> column in Native block, null becomes default value of the data type
+        void encode(ResultSet rs, ClickHouseNativeBlock block, int column) throws SQLException {
+            if (!read(rs, block.getVector(column))) {
+                block.appendNull(column);
+            }
+        }
+
+        // RowBinary -> PreparedStatement
+        abstract void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException;
+
+        // decoded Java object -> PreparedStatement, using same setter as above
+        abstract void bind(PreparedStatement stmt, Object value) throws SQLException;
+
+        // RowBinary -> Java object
+        abstract Object decode(ClickHouseBuffer buffer);
+    }
+
+    // typed getter followed by wasNull, so that nothing is boxed
+    abstract static class IntColumnCodec extends ColumnCodec {
+        IntColumnCodec(int index) {
+            super(index);
+        }
+
+        abstract void write(ClickHouseBuffer buffer, int value);
+
+        @Override
+        void encode(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            write(buffer, rs.getInt(this.index));
+        }
+
+        @Override
+        boolean encodeNonNull(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            int value = rs.getInt(this.index);
+            if (rs.wasNull()) {
+                return false;
+            }
+
+            write(buffer.writeNonNull(), value);
+            return true;
+        }
+
+        @Override
+        boolean read(ResultSet rs, ClickHouseColumnVector vector) throws SQLException {
+            int value = rs.getInt(this.index);
+            if (rs.wasNull()) {
+                return false;
+            }
+
+            ((ClickHouseColumnVector.IntVector) vector).append(value);
+            return true;
+        }
+    }
+
+    abstract static class LongColumnCodec extends ColumnCodec {
+        LongColumnCodec(int index) {
+            super(index);
+        }
+
+        abstract void write(ClickHouseBuffer buffer, long value);
+
+        @Override
+        void encode(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            write(buffer, rs.getLong(this.index));
+        }
+
+        @Override
+        boolean encodeNonNull(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            long value = rs.getLong(this.index);
+            if (rs.wasNull()) {
+                return false;
+            }
+
+            write(buffer.writeNonNull(), value);
+            return true;
+        }
+
+        @Override
+        boolean read(ResultSet rs, ClickHouseColumnVector vector) throws SQLException {
+            long value = rs.getLong(this.index);
+            if (rs.wasNull()) {
+                return false;
+            }
+
+            ((ClickHouseColumnVector.LongVector) vector).append(value);
+            return true;
+        }
+    }
+
+    abstract static class DoubleColumnCodec extends ColumnCodec {
+        DoubleColumnCodec(int index) {
+            super(index);
+        }
+
+        // float column is read by getFloat, which is not necessarily same as getDouble
+        abstract double get(ResultSet rs) throws SQLException;
+
+        abstract void write(ClickHouseBuffer buffer, double value);
+
+        @Override
+        void encode(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            write(buffer, get(rs));
+        }
+
+        @Override
+        boolean encodeNonNull(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            double value = get(rs);
+            if (rs.wasNull()) {
+                return false;
+            }
+
+            write(buffer.writeNonNull(), value);
+            return true;
+        }
+
+        @Override
+        boolean read(ResultSet rs, ClickHouseColumnVector vector) throws SQLException {
+            double value = get(rs);
+            if (rs.wasNull()) {
+                return false;
+            }
+
+            ((ClickHouseColumnVector.DoubleVector) vector).append(value);
+            return true;
+        }
+    }
+
+    // values are objects anyway, they're encoded right away
+    abstract static class ObjectColumnCodec<T> extends ColumnCodec {
+        ObjectColumnCodec(int index) {
+            super(index);
+        }
+
+        abstract T get(ResultSet rs) throws SQLException;
+
+        abstract void write(ClickHouseBuffer buffer, T value);
+
+        @Override
+        void encode(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            write(buffer, get(rs));
+        }
+
+        @Override
+        boolean encodeNonNull(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            T value = get(rs);
+            if (value == null) {
+                return false;
+            }
+
+            write(buffer.writeNonNull(), value);
+            return true;
+        }
+
+        @Override
+        boolean read(ResultSet rs, ClickHouseColumnVector vector) throws SQLException {
+            T value = get(rs);
+            if (value == null) {
+                return false;
+            }
+
+            write(((ClickHouseColumnVector.BytesVector) vector).append(), value);
+            return true;
+        }
+    }
+
+    static final class NullableCodec extends ColumnCodec {
+        private final ColumnCodec codec;
+        private final ClickHouseColumnInfo column;
+        // non-null only when null_as_default is enabled
+        private final DefaultValues defaultValues;
+
+        NullableCodec(ColumnCodec codec, ClickHouseColumnInfo column, DefaultValues defaultValues) {
+            super(codec.index);
+
+            this.codec = codec;
+            this.column = column;
+            this.defaultValues = defaultValues;
+        }
+
+        @Override
+        void encode(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            if (!this.codec.encodeNonNull(rs, buffer)) {
+                if (this.defaultValues != null) {
+                    buffer.writeNonNull().writeDefaultValue(this.column, this.defaultValues);
+                } else {
+                    buffer.writeNull();
+                }
+            }
+        }
+
+        @Override
+        boolean encodeNonNull(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+            return this.codec.encodeNonNull(rs, buffer);
+        }
+
+        @Override
+        boolean read(ResultSet rs, ClickHouseColumnVector vector) throws SQLException {
+            return this.codec.read(rs, vector);
+        }
+
+        @Override
+        void encode(ResultSet rs, ClickHouseNativeBlock block, int column) throws SQLException {
+            ClickHouseColumnVector vector = block.getVector(column);
+            if (!this.codec.read(rs, vector)) {
+                if (this.defaultValues != null) {
+                    vector.appendDefault(this.defaultValues);
+                } else {
+                    block.appendNull(column);
+                }
+            }
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            if (buffer.readNull()) {
+                stmt.setString(this.index, null);
+            } else {
+                this.codec.bind(stmt, buffer);
+            }
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            if (value == null) {
+                stmt.setString(this.index, null);
+            } else {
+                this.codec.bind(stmt, value);
+            }
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readNull() ? null : this.codec.decode(buffer);
+        }
+    }
+
+    static final class Int8Codec extends IntColumnCodec {
+        Int8Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, int value) {
+            buffer.writeInt8(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setByte(this.index, buffer.readInt8());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setByte(this.index, (Byte) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readInt8();
+        }
+    }
+
+    static final class Int16Codec extends IntColumnCodec {
+        Int16Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, int value) {
+            buffer.writeInt16(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setShort(this.index, buffer.readInt16());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setShort(this.index, (Short) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readInt16();
+        }
+    }
+
+    static final class Int32Codec extends IntColumnCodec {
+        Int32Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, int value) {
+            buffer.writeInt32(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setInt(this.index, buffer.readInt32());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setInt(this.index, (Integer) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readInt32();
+        }
+    }
+
+    static final class Int64Codec extends LongColumnCodec {
+        Int64Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, long value) {
+            buffer.writeInt64(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setLong(this.index, buffer.readInt64());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setLong(this.index, (Long) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readInt64();
+        }
+    }
+
+    static final class UInt8Codec extends IntColumnCodec {
+        UInt8Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, int value) {
+            buffer.writeUInt8(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setInt(this.index, buffer.readUInt8());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setInt(this.index, (Integer) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return (int) buffer.readUInt8();
+        }
+    }
+
+    static final class UInt16Codec extends IntColumnCodec {
+        UInt16Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, int value) {
+            buffer.writeUInt16(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setInt(this.index, buffer.readUInt16());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setInt(this.index, (Integer) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readUInt16();
+        }
+    }
+
+    static final class UInt32Codec extends LongColumnCodec {
+        UInt32Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, long value) {
+            buffer.writeUInt32(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setLong(this.index, buffer.readUInt32());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setLong(this.index, (Long) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readUInt32();
+        }
+    }
+
+    static final class UInt64Codec extends LongColumnCodec {
+        UInt64Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, long value) {
+            buffer.writeUInt64(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setString(this.index, Long.toUnsignedString(buffer.readUInt64AsLong()));
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setString(this.index, (String) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return Long.toUnsignedString(buffer.readUInt64AsLong());
+        }
+    }
+
+    static final class Float32Codec extends DoubleColumnCodec {
+        Float32Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        double get(ResultSet rs) throws SQLException {
+            return rs.getFloat(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, double value) {
+            buffer.writeFloat32((float) value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setFloat(this.index, buffer.readFloat32());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setFloat(this.index, (Float) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readFloat32();
+        }
+    }
+
+    static final class Float64Codec extends DoubleColumnCodec {
+        Float64Codec(int index) {
+            super(index);
+        }
+
+        @Override
+        double get(ResultSet rs) throws SQLException {
+            return rs.getDouble(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, double value) {
+            buffer.writeFloat64(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setDouble(this.index, buffer.readFloat64());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setDouble(this.index, (Double) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readFloat64();
+        }
+    }
+
+    static final class DateCodec extends ObjectColumnCodec<Date> {
+        DateCodec(int index) {
+            super(index);
+        }
+
+        @Override
+        Date get(ResultSet rs) throws SQLException {
+            return rs.getDate(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, Date value) {
+            buffer.writeDate(value);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setDate(this.index, buffer.readDate());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setDate(this.index, (Date) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readDate();
+        }
+    }
+
+    static final class DateTimeCodec extends ObjectColumnCodec<Timestamp> {
+        private final TimeZone timezone;
+
+        DateTimeCodec(int index, TimeZone timezone) {
+            super(index);
+
+            this.timezone = timezone;
+        }
+
+        @Override
+        Timestamp get(ResultSet rs) throws SQLException {
+            return rs.getTimestamp(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, Timestamp value) {
+            buffer.writeDateTime(value, this.timezone);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setTimestamp(this.index, buffer.readDateTime(this.timezone));
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setTimestamp(this.index, (Timestamp) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readDateTime(this.timezone);
+        }
+    }
+
+    static final class DateTime64Codec extends ObjectColumnCodec<Timestamp> {
+        private final TimeZone timezone;
+
+        DateTime64Codec(int index, TimeZone timezone) {
+            super(index);
+
+            this.timezone = timezone;
+        }
+
+        @Override
+        Timestamp get(ResultSet rs) throws SQLException {
+            return rs.getTimestamp(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, Timestamp value) {
+            buffer.writeDateTime64(value, this.timezone);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setTimestamp(this.index, buffer.readDateTime64(this.timezone));
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setTimestamp(this.index, (Timestamp) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readDateTime64(this.timezone);
+        }
+    }
+
+    static final class DecimalCodec extends ObjectColumnCodec<BigDecimal> {
+        private final int precision;
+        private final int scale;
+
+        DecimalCodec(int index, int precision, int scale) {
+            super(index);
+
+            this.precision = precision;
+            this.scale = scale;
+        }
+
+        @Override
+        BigDecimal get(ResultSet rs) throws SQLException {
+            return rs.getBigDecimal(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, BigDecimal value) {
+            buffer.writeDecimal(value, this.precision, this.scale);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setBigDecimal(this.index, buffer.readDecimal(this.precision, this.scale));
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setBigDecimal(this.index, (BigDecimal) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readDecimal(this.precision, this.scale);
+        }
+    }
+
+    static final class Decimal32Codec extends ObjectColumnCodec<BigDecimal> {
+        private final int scale;
+
+        Decimal32Codec(int index, int scale) {
+            super(index);
+
+            this.scale = scale;
+        }
+
+        @Override
+        BigDecimal get(ResultSet rs) throws SQLException {
+            return rs.getBigDecimal(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, BigDecimal value) {
+            buffer.writeDecimal32(value, this.scale);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setBigDecimal(this.index, buffer.readDecimal32(this.scale));
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setBigDecimal(this.index, (BigDecimal) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readDecimal32(this.scale);
+        }
+    }
+
+    static final class Decimal64Codec extends ObjectColumnCodec<BigDecimal> {
+        private final int scale;
+
+        Decimal64Codec(int index, int scale) {
+            super(index);
+
+            this.scale = scale;
+        }
+
+        @Override
+        BigDecimal get(ResultSet rs) throws SQLException {
+            return rs.getBigDecimal(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, BigDecimal value) {
+            buffer.writeDecimal64(value, this.scale);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setBigDecimal(this.index, buffer.readDecimal64(this.scale));
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setBigDecimal(this.index, (BigDecimal) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readDecimal64(this.scale);
+        }
+    }
+
+    static final class Decimal128Codec extends ObjectColumnCodec<BigDecimal> {
+        private final int scale;
+
+        Decimal128Codec(int index, int scale) {
+            super(index);
+
+            this.scale = scale;
+        }
+
+        @Override
+        BigDecimal get(ResultSet rs) throws SQLException {
+            return rs.getBigDecimal(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, BigDecimal value) {
+            buffer.writeDecimal128(value, this.scale);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setBigDecimal(this.index, buffer.readDecimal128(this.scale));
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setBigDecimal(this.index, (BigDecimal) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readDecimal128(this.scale);
+        }
+    }
+
+    static final class StringCodec extends ObjectColumnCodec<String> {
+        private final boolean normalize;
+
+        StringCodec(int index, boolean normalize) {
+            super(index);
+
+            this.normalize = normalize;
+        }
+
+        @Override
+        String get(ResultSet rs) throws SQLException {
+            return rs.getString(this.index);
+        }
+
+        @Override
+        void write(ClickHouseBuffer buffer, String value) {
+            buffer.writeString(value, this.normalize);
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+            stmt.setString(this.index, buffer.readString());
+        }
+
+        @Override
+        void bind(PreparedStatement stmt, Object value) throws SQLException {
+            stmt.setString(this.index, (String) value);
+        }
+
+        @Override
+        Object decode(ClickHouseBuffer buffer) {
+            return buffer.readString();
+        }
+    }
+
+    static ColumnCodec newCodec(ClickHouseColumnInfo column, int index, QueryParameters params,
+            DefaultValues defaultValues) {
+        final ColumnCodec codec;
+
+        switch (column.getType()) {
+            case Int8:
+                codec = new Int8Codec(index);
+                break;
+            case Int16:
+                codec = new Int16Codec(index);
+                break;
+            case Int32:
+                codec = new Int32Codec(index);
+                break;
+            case Int64:
+                codec = new Int64Codec(index);
+                break;
+            case UInt8:
+                codec = new UInt8Codec(index);
+                break;
+            case UInt16:
+                codec = new UInt16Codec(index);
+                break;
+            case UInt32:
+                codec = new UInt32Codec(index);
+                break;
+            case UInt64:
+                codec = new UInt64Codec(index);
+                break;
+            case Float32:
+                codec = new Float32Codec(index);
+                break;
+            case Float64:
+                codec = new Float64Codec(index);
+                break;
+            case Date:
+                codec = new DateCodec(index);
+                break;
+            case DateTime:
+                codec = new DateTimeCodec(index, column.getTimeZone());
+                break;
+            case DateTime64:
+                codec = new DateTime64Codec(index, column.getTimeZone());
+                break;
+            case Decimal:
+                codec = new DecimalCodec(index, column.getPrecision(), column.getScale());
+                break;
+            case Decimal32:
+                codec = new Decimal32Codec(index, column.getScale());
+                break;
+            case Decimal64:
+                codec = new Decimal64Codec(index, column.getScale());
+                break;
+            case Decimal128:
+                codec = new Decimal128Codec(index, column.getScale());
+                break;
+            case String:
+            default:
+                codec = new StringCodec(index, params != null && params.nullAsDefault());
+                break;
+        }
+
+        return column.isNullable()
+                ? new NullableCodec(codec, column,
+                        params != null && params.nullAsDefault() ? Objects.requireNonNull(defaultValues) : null)
+                : codec;
+    }
+
+    /**
+     * Compile row codec for streaming query result. Leading columns, if any, are
+     * either datasource column or custom columns, which are not part of the
+     * result set.
+     *
+     * @param datasourceId  id of the datasource
+     * @param columns       columns including leading ones
+     * @param params        query parameters
+     * @param defaultValues default values for nullable columns
+     * @param customColumns number of custom columns defined in the datasource
+     * @return compiled row codec
+     */
+    static ClickHouseRowCodec forQuery(String datasourceId, ClickHouseColumnInfo[] columns,
+            QueryParameters params, DefaultValues defaultValues, int customColumns) {
+        Objects.requireNonNull(columns);
+        Objects.requireNonNull(params);
+
+        int xLength = params.showDatasourceColumn() ? 1 : 0;
+        ClickHouseColumnInfo[] leadingColumns = new ClickHouseColumnInfo[params.showCustomColumns() ? customColumns : 0];
+        System.arraycopy(columns, xLength, leadingColumns, 0, leadingColumns.length);
+        xLength += leadingColumns.length;
+
+        ColumnCodec[] codecs = new ColumnCodec[columns.length - xLength];
+        for (int i = 0; i < codecs.length; i++) {
+            ClickHouseColumnInfo column = columns[i + xLength];
+            // keep in mind that column index is zero-based
+            codecs[i] = newCodec(column, column.isIndexed() ? column.getIndex() + 1 : i + 1, params, defaultValues);
+        }
+
+        return new ClickHouseRowCodec(params.showDatasourceColumn() ? Objects.requireNonNull(datasourceId) : null,
+                leadingColumns, codecs);
+    }
+
+    /**
+     * Compile row codec for mutation.
+     *
+     * @param columns columns in the same order as parameters in the statement
+     * @return compiled row codec
+     */
+    static ClickHouseRowCodec forMutation(ClickHouseColumnInfo[] columns) {
+        Objects.requireNonNull(columns);
+
+        ColumnCodec[] codecs = new ColumnCodec[columns.length];
+        for (int i = 0; i < codecs.length; i++) {
+            codecs[i] = newCodec(columns[i], i + 1, null, null);
+        }
+
+        return new ClickHouseRowCodec(null, new ClickHouseColumnInfo[0], codecs);
+    }
+
+    private final String datasourceId;
+    private final ClickHouseColumnInfo[] customColumns;
+    private final ColumnCodec[] codecs;
+
+    private ClickHouseRowCodec(String datasourceId, ClickHouseColumnInfo[] customColumns, ColumnCodec[] codecs) {
+        this.datasourceId = datasourceId;
+        this.customColumns = customColumns;
+        this.codecs = codecs;
+    }
+
+    int size() {
+        return this.codecs.length;
+    }
+
+    void encode(ResultSet rs, ClickHouseBuffer buffer) throws SQLException {
+        if (this.datasourceId != null) {
+            buffer.writeNonNull().writeString(this.datasourceId);
+        }
+        for (ClickHouseColumnInfo column : this.customColumns) {
+            column.writeValueTo(buffer);
+        }
+
+        for (ColumnCodec codec : this.codecs) {
+            codec.encode(rs, buffer);
+        }
+    }
+
+    /**
+     * Encode current row into the block, in either RowBinary or Native format.
+     *
+     * @param rs    result set
+     * @param block block writer
+     * @throws SQLException when failed to read from the result set
+     */
+    void encode(ResultSet rs, ClickHouseBlockWriter block) throws SQLException {
+        ClickHouseNativeBlock nativeBlock = block.getNativeBlock();
+        if (nativeBlock == null) {
+            encode(rs, block.getBuffer());
+            return;
+        }
+
+        // same column order as in RowBinary
+        int column = 0;
+        if (this.datasourceId != null) {
+            nativeBlock.writeValue(column++, this.datasourceId);
+        }
+        for (ClickHouseColumnInfo c : this.customColumns) {
+            nativeBlock.writeValue(column++, c);
+        }
+
+        for (ColumnCodec codec : this.codecs) {
+            codec.encode(rs, nativeBlock, column++);
+        }
+    }
+
+    void bind(PreparedStatement stmt, ClickHouseBuffer buffer) throws SQLException {
+        for (ColumnCodec codec : this.codecs) {
+            codec.bind(stmt, buffer);
+        }
+    }
+
+    void bind(PreparedStatement stmt, Object[] row) throws SQLException {
+        ColumnCodec[] codecs = this.codecs;
+        for (int i = 0; i < codecs.length; i++) {
+            codecs[i].bind(stmt, row[i]);
+        }
+    }
+
+    Object[] decode(ClickHouseBuffer buffer) {
+        ColumnCodec[] codecs = this.codecs;
+        Object[] row = new Object[codecs.length];
+
+        for (int i = 0; i < codecs.length; i++) {
+            row[i] = codecs[i].decode(buffer);
+        }
+
+        return row;
+    }
+}
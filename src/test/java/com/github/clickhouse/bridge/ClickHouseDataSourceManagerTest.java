@@ -22,11 +22,39 @@ package com.github.clickhouse.bridge;
 
 import static org.testng.Assert.*;
 
+import java.io.IOException;
+
 import com.github.clickhouse.bridge.core.ClickHouseDataSource;
+import com.github.clickhouse.bridge.core.IDataSourceResolver;
 
 import org.testng.annotations.Test;
 
+import io.vertx.core.json.JsonObject;
+
 public class ClickHouseDataSourceManagerTest {
+    public static class TrackedDataSource extends ClickHouseDataSource {
+        private volatile boolean closed = false;
+
+        public TrackedDataSource(String id, IDataSourceResolver resolver, JsonObject config) {
+            super(id, resolver, config);
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.closed = true;
+            super.close();
+        }
+    }
+
+    private static boolean isRetired(ClickHouseDataSource ds) {
+        if (ds.acquire()) {
+            ds.release();
+            return false;
+        }
+
+        return true;
+    }
+
     @Test(groups = { "unit" }, expectedExceptions = { IllegalArgumentException.class })
     public void testGetException() throws Exception {
         ClickHouseDataSourceManager manager = new ClickHouseDataSourceManager();
@@ -46,6 +74,8 @@ public class ClickHouseDataSourceManagerTest {
         ds = manager.get(uri, true);
         assertNotNull(ds);
         assertEquals(ds.getId(), uri);
+        // ad-hoc datasource is cached along with its connection pool
+        assertSame(manager.get(uri, false), ds);
 
         uri = "jdbc:weird:vendor:hostname:1234?database=test";
         ds = manager.get(uri, true);
@@ -58,6 +88,58 @@ public class ClickHouseDataSourceManagerTest {
         assertEquals(ds.getId(), uri);
     }
 
+    @Test(groups = { "unit" })
+    public void testReload() {
+        ClickHouseDataSourceManager manager = new ClickHouseDataSourceManager();
+
+        manager.reload(new JsonObject().put("ds1", new JsonObject().put("timezone", "UTC")).put("ds2",
+                new JsonObject()));
+        ClickHouseDataSource ds1 = manager.get("ds1", false);
+        ClickHouseDataSource ds2 = manager.get("ds2", false);
+        assertEquals(ds1.getId(), "ds1");
+        assertEquals(ds2.getId(), "ds2");
+
+        // ds1 is unchanged, ds2 is replaced and ds3 is new
+        manager.reload(new JsonObject().put("ds1", new JsonObject().put("timezone", "UTC"))
+                .put("ds2", new JsonObject().put("timezone", "UTC")).put("ds3", new JsonObject()));
+        assertSame(manager.get("ds1", false), ds1);
+        assertNotSame(manager.get("ds2", false), ds2);
+        assertEquals(manager.get("ds3", false).getId(), "ds3");
+
+        ClickHouseDataSource ds3 = manager.get("ds3", false);
+        manager.reload(new JsonObject().put("ds3", new JsonObject()));
+        assertSame(manager.get("ds3", false), ds3);
+        assertNotSame(manager.get("ds1", true), ds1);
+
+        manager.reload(null);
+        assertNotSame(manager.get("ds3", true), ds3);
+    }
+
+    @Test(groups = { "unit" })
+    public void testEvictLeasedAdhocDataSource() throws Exception {
+        ClickHouseDataSourceManager manager = new ClickHouseDataSourceManager();
+        manager.registerType("tracked", TrackedDataSource.class.getName());
+        manager.setDrainTimeout(10L);
+        // nothing is kept, so the datasource is evicted right after it's created
+        manager.configureAdhocDataSources(new JsonObject().put("size", 0));
+
+        TrackedDataSource ds = (TrackedDataSource) manager.acquire("tracked:adhoc", false);
+        for (int i = 0; i < 100 && !isRetired(ds); i++) {
+            Thread.sleep(50L);
+        }
+        assertTrue(isRetired(ds));
+
+        // well beyond drain timeout, but the lease is still held
+        Thread.sleep(200L);
+        assertFalse(ds.closed);
+
+        ds.release();
+        for (int i = 0; i < 100 && !ds.closed; i++) {
+            Thread.sleep(50L);
+        }
+        assertTrue(ds.closed);
+    }
+
     @Test(groups = { "sit" })
     public void testSrvRecordSupport() {
         ClickHouseDataSourceManager manager = new ClickHouseDataSourceManager();
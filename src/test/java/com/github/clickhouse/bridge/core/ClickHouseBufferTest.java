@@ -24,6 +24,7 @@ import static org.testng.Assert.*;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
 import org.testng.annotations.Test;
@@ -48,6 +49,21 @@ public class ClickHouseBufferTest {
         String str = "2";
         buffer.writeString(str);
         assertEquals(buffer.readString(), str);
+
+        String[] strs = new String[] { "", "a\r\nb", "\u00e9t\u00e9", "\u4e2d\u6587", "\ud83d\ude00!", "x\ud800y" };
+        for (String s : strs) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            assertEquals(ClickHouseBuffer.getUtf8Length(s), bytes.length);
+
+            int start = buffer.length();
+            buffer.writeString(s);
+            assertEquals(buffer.buffer.getBytes(start + 1, buffer.length()), bytes);
+            assertEquals(buffer.readString(), new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        buffer.writeString("a\r\nb", true);
+        assertEquals(buffer.readString(), "a \nb");
+        assertTrue(buffer.isExausted());
     }
 
     @Test(groups = { "unit" })
@@ -154,4 +170,58 @@ public class ClickHouseBufferTest {
         assertEquals(buffer.readDateTime64(), xdt1);
         assertEquals(buffer.readDateTime64(), xdt2);
     }
+
+    @Test(groups = { "unit" })
+    public void testWriteAndReadDecimals() {
+        ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(100);
+
+        BigDecimal d1 = new BigDecimal("-12345.678");
+        BigDecimal d2 = new BigDecimal("170141183460469231731687303715884.10572");
+        BigDecimal d3 = d2.negate();
+
+        buffer.writeDecimal32(d1, 2);
+        buffer.writeDecimal64(d1, 4);
+        buffer.writeDecimal128(d1, 8);
+        buffer.writeDecimal128(d2, 5);
+        buffer.writeDecimal128(d3, 5);
+        buffer.writeUInt64(new BigInteger("18446744073709551615"));
+        assertEquals(buffer.length(), 4 + 8 + 16 * 3 + 8);
+
+        assertEquals(buffer.readDecimal32(2), new BigDecimal("-12345.67"));
+        assertEquals(buffer.readDecimal64(4), new BigDecimal("-12345.6780"));
+        assertEquals(buffer.readDecimal128(8), new BigDecimal("-12345.67800000"));
+        assertEquals(buffer.readDecimal128(5), d2);
+        assertEquals(buffer.readDecimal128(5), d3);
+        assertEquals(Long.toUnsignedString(buffer.readUInt64AsLong()), "18446744073709551615");
+        assertTrue(buffer.isExausted());
+    }
+
+    @Test(groups = { "unit" })
+    public void testHasCompleteRow() {
+        ClickHouseColumnInfo[] columns = new ClickHouseColumnInfo[] {
+                new ClickHouseColumnInfo("i", ClickHouseDataType.Int32, false, 0, 0),
+                new ClickHouseColumnInfo("s", ClickHouseDataType.String, true, 0, 0) };
+
+        ClickHouseBuffer buffer = ClickHouseBuffer.newInstance(100);
+        assertFalse(buffer.hasCompleteRow(columns));
+
+        buffer.writeInt32(1);
+        assertFalse(buffer.hasCompleteRow(columns));
+        buffer.writeNonNull();
+        assertFalse(buffer.hasCompleteRow(columns));
+        buffer.writeString("abc");
+        assertTrue(buffer.hasCompleteRow(columns));
+
+        buffer.writeInt32(2);
+        buffer.writeNull();
+
+        assertEquals(buffer.readInt32(), 1);
+        assertTrue(buffer.hasCompleteRow(columns));
+        assertFalse(buffer.readNull());
+        assertEquals(buffer.readString(), "abc");
+        assertTrue(buffer.hasCompleteRow(columns));
+        assertEquals(buffer.readInt32(), 2);
+        assertTrue(buffer.readNull());
+        assertTrue(buffer.isExausted());
+    }
 }
\ No newline at end of file
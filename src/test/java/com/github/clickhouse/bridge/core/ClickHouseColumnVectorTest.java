@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import static org.testng.Assert.*;
+
+import java.util.TimeZone;
+
+import org.testng.annotations.Test;
+
+public class ClickHouseColumnVectorTest {
+    private static ClickHouseColumnVector newVector(ClickHouseDataType type, boolean nullable) {
+        return ClickHouseColumnVector.of(new ClickHouseColumnInfo("c", type, nullable, 0, 0),
+                TimeZone.getTimeZone("UTC"), 0);
+    }
+
+    @Test(groups = { "unit" })
+    public void testOf() {
+        assertTrue(newVector(ClickHouseDataType.Int8, false) instanceof ClickHouseColumnVector.IntVector);
+        assertTrue(newVector(ClickHouseDataType.UInt16, false) instanceof ClickHouseColumnVector.IntVector);
+        assertTrue(newVector(ClickHouseDataType.Int32, true) instanceof ClickHouseColumnVector.IntVector);
+        assertTrue(newVector(ClickHouseDataType.UInt32, false) instanceof ClickHouseColumnVector.LongVector);
+        assertTrue(newVector(ClickHouseDataType.UInt64, false) instanceof ClickHouseColumnVector.LongVector);
+        assertTrue(newVector(ClickHouseDataType.Float32, false) instanceof ClickHouseColumnVector.DoubleVector);
+        assertTrue(newVector(ClickHouseDataType.Float64, true) instanceof ClickHouseColumnVector.DoubleVector);
+        assertTrue(newVector(ClickHouseDataType.String, true) instanceof ClickHouseColumnVector.BytesVector);
+        assertTrue(newVector(ClickHouseDataType.DateTime, false) instanceof ClickHouseColumnVector.BytesVector);
+    }
+
+    @Test(groups = { "unit" })
+    public void testAppend() {
+        ClickHouseColumnVector.LongVector vector = (ClickHouseColumnVector.LongVector) newVector(
+                ClickHouseDataType.Int64, true);
+
+        // grow beyond initial capacity as well as one word of null bitmap
+        int rows = 200;
+        for (int i = 0; i < rows; i++) {
+            if (i % 3 == 0) {
+                vector.appendNull();
+            } else {
+                vector.append(i);
+            }
+        }
+
+        assertEquals(vector.size(), rows);
+        assertEquals(vector.length(), rows * 8 + rows);
+        for (int i = 0; i < rows; i++) {
+            assertEquals(vector.isNull(i), i % 3 == 0);
+            assertEquals(vector.get(i), i % 3 == 0 ? 0L : (long) i);
+        }
+
+        vector.clear();
+        assertEquals(vector.size(), 0);
+        assertEquals(vector.length(), 0);
+        vector.append(1L);
+        assertFalse(vector.isNull(0));
+        assertEquals(vector.get(0), 1L);
+    }
+
+    @Test(groups = { "unit" })
+    public void testNonNullable() {
+        ClickHouseColumnVector.DoubleVector vector = (ClickHouseColumnVector.DoubleVector) newVector(
+                ClickHouseDataType.Float32, false);
+        vector.append(1.5D);
+        vector.appendNull();
+
+        assertEquals(vector.size(), 2);
+        assertEquals(vector.length(), 2 * 4);
+        assertFalse(vector.isNull(1));
+        assertEquals(vector.get(0), 1.5D);
+        assertEquals(vector.get(1), 0D);
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import static org.testng.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.testng.annotations.Test;
+
+import io.vertx.core.buffer.Buffer;
+
+public class ClickHouseCompressorTest {
+    private byte[] decompress(String encoding, byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = ClickHouseCompressor.ENCODING_GZIP.equals(encoding)
+                ? new GZIPInputStream(new ByteArrayInputStream(bytes))
+                : new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                out.write(buf, 0, len);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test(groups = { "unit" })
+    public void testNegotiate() {
+        assertNull(ClickHouseCompressor.negotiate(null));
+        assertNull(ClickHouseCompressor.negotiate(""));
+        assertNull(ClickHouseCompressor.negotiate("identity"));
+        assertNull(ClickHouseCompressor.negotiate("gzip;q=0"));
+        assertEquals(ClickHouseCompressor.negotiate("GZIP"), ClickHouseCompressor.ENCODING_GZIP);
+        assertEquals(ClickHouseCompressor.negotiate("br, deflate, gzip;q=0.5"), ClickHouseCompressor.ENCODING_GZIP);
+        assertEquals(ClickHouseCompressor.negotiate("deflate, gzip; q=0.0"), ClickHouseCompressor.ENCODING_DEFLATE);
+    }
+
+    @Test(groups = { "unit" })
+    public void testCompress() throws IOException {
+        Random random = new Random(1);
+        for (String encoding : new String[] { ClickHouseCompressor.ENCODING_GZIP,
+                ClickHouseCompressor.ENCODING_DEFLATE }) {
+            ClickHouseCompressor compressor = new ClickHouseCompressor(encoding, ClickHouseCompressor.DEFAULT_LEVEL);
+            assertEquals(compressor.getEncoding(), encoding);
+
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            for (int i = 0; i < 10; i++) {
+                byte[] block = new byte[random.nextInt(100000)];
+                for (int j = 0; j < block.length; j++) {
+                    block[j] = (byte) random.nextInt(16);
+                }
+                raw.write(block);
+                compressed.write(compressor.compress(Buffer.buffer(block)).getBytes());
+            }
+            compressed.write(compressor.finish().getBytes());
+            // already released by finish, as it is on failure
+            compressor.close();
+
+            assertEquals(decompress(encoding, compressed.toByteArray()), raw.toByteArray());
+        }
+    }
+}
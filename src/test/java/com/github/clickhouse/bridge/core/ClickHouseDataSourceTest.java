@@ -22,6 +22,14 @@ package com.github.clickhouse.bridge.core;
 
 import static org.testng.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.testng.annotations.Test;
 
 import io.vertx.core.json.JsonObject;
@@ -87,4 +95,96 @@ public class ClickHouseDataSourceTest {
         ds.getColumns("", "src/test/resources/simple.query");
         assertEquals(ds.getId(), dataSourceId);
     }
+
+    static class CountingDataSource extends ClickHouseDataSource {
+        final AtomicInteger inferred = new AtomicInteger(0);
+
+        CountingDataSource(JsonObject config) {
+            super("test", new DummyDataSourceResolver(), config);
+        }
+
+        @Override
+        protected ClickHouseColumnList inferColumns(String schema, String query) {
+            inferred.incrementAndGet();
+            return super.inferColumns(schema, query);
+        }
+    }
+
+    @Test(groups = { "unit" })
+    public void testColumnsCache() throws IOException {
+        File file = File.createTempFile("columns", ".json");
+        assertTrue(file.delete());
+        file.deleteOnExit();
+
+        JsonObject config = new JsonObject().put("cache",
+                new JsonObject().put("columns", new JsonObject().put("file", file.getPath())));
+
+        CountingDataSource ds = new CountingDataSource(config);
+        ds.getColumns("a", "select 1");
+        ds.getColumns("a", "select 1");
+        ds.getColumns("b", "select 1");
+        ds.getColumns(null, "select 1");
+        ds.getColumns("", "select 1");
+        assertEquals(ds.inferred.get(), 3);
+        assertTrue(file.exists());
+        ds.close();
+
+        // columns are loaded from file instead of being inferred again
+        String expected = ClickHouseColumnList.DEFAULT_COLUMNS_INFO.toString();
+        ds = new CountingDataSource(config);
+        assertEquals(ds.getColumns("a", "select 1").toString(), expected);
+        assertEquals(ds.getColumns("b", "select 1").toString(), expected);
+        assertEquals(ds.getColumns(null, "select 1").toString(), expected);
+        assertEquals(ds.inferred.get(), 0);
+        ds.getColumns("c", "select 1");
+        assertEquals(ds.inferred.get(), 1);
+        ds.close();
+    }
+
+    @Test(groups = { "unit" })
+    public void testConcurrentGetColumns() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        CountingDataSource ds = new CountingDataSource(new JsonObject()) {
+            @Override
+            protected ClickHouseColumnList inferColumns(String schema, String query) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.inferColumns(schema, query);
+            }
+        };
+
+        List<CompletableFuture<ClickHouseColumnList>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> ds.getColumns("a", "select 1")));
+        }
+        latch.countDown();
+
+        for (CompletableFuture<ClickHouseColumnList> future : futures) {
+            assertEquals(future.get(), ClickHouseColumnList.DEFAULT_COLUMNS_INFO);
+        }
+        assertEquals(ds.inferred.get(), 1);
+    }
+
+    @Test(groups = { "unit" })
+    public void testLeases() {
+        ClickHouseDataSource ds = new ClickHouseDataSource("test", new DummyDataSourceResolver(), new JsonObject());
+
+        assertTrue(ds.acquire());
+        assertTrue(ds.acquire());
+        assertEquals(ds.getLeases(), 2);
+
+        CompletableFuture<Void> drained = ds.retire();
+        assertFalse(drained.isDone());
+        assertFalse(ds.acquire());
+        assertEquals(ds.getLeases(), 2);
+
+        ds.release();
+        assertFalse(drained.isDone());
+        ds.release();
+        assertTrue(drained.isDone());
+        assertEquals(ds.getLeases(), 0);
+    }
 }
\ No newline at end of file
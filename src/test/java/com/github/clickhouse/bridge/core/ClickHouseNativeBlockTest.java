@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.core;
+
+import static org.testng.Assert.*;
+
+import java.util.TimeZone;
+
+import org.testng.annotations.Test;
+
+import io.vertx.core.MultiMap;
+
+public class ClickHouseNativeBlockTest {
+    @Test(groups = { "unit" })
+    public void testOutputFormat() {
+        assertFalse(new StreamOptions(null).isNativeFormat());
+        assertEquals(new StreamOptions(null).getOutputFormat(), StreamOptions.FORMAT_ROW_BINARY);
+        assertFalse(new StreamOptions(MultiMap.caseInsensitiveMultiMap().add("output_format", "JSON"))
+                .isNativeFormat());
+        assertTrue(new StreamOptions(MultiMap.caseInsensitiveMultiMap().add("output_format", "native"))
+                .isNativeFormat());
+    }
+
+    @Test(groups = { "unit" })
+    public void testNullOnNonNullable() {
+        ClickHouseNativeBlock block = new ClickHouseNativeBlock(new ClickHouseColumnInfo[] {
+                new ClickHouseColumnInfo("a", ClickHouseDataType.Int32, false, 0, 0) }, null);
+        block.appendNull(0);
+        block.endRow();
+
+        ClickHouseColumnVector.IntVector vector = (ClickHouseColumnVector.IntVector) block.getVector(0);
+        assertFalse(vector.isNull(0));
+        assertEquals(vector.get(0), 0);
+        assertEquals(block.length(), 4);
+    }
+
+    @Test(groups = { "unit" }, expectedExceptions = { IllegalStateException.class })
+    public void testFlushIncompleteRow() {
+        ClickHouseNativeBlock block = new ClickHouseNativeBlock(new ClickHouseColumnInfo[] {
+                new ClickHouseColumnInfo("a", ClickHouseDataType.Int32, false, 0, 0),
+                new ClickHouseColumnInfo("b", ClickHouseDataType.Int32, false, 0, 0) }, null);
+        ((ClickHouseColumnVector.IntVector) block.getVector(0)).append(1);
+        block.endRow();
+
+        block.flush();
+    }
+
+    @Test(groups = { "unit" })
+    public void testFlush() {
+        ClickHouseColumnInfo[] columns = new ClickHouseColumnInfo[] {
+                new ClickHouseColumnInfo("a", ClickHouseDataType.Int32, false, 0, 0),
+                new ClickHouseColumnInfo("b", ClickHouseDataType.String, true, 0, 0) };
+        ClickHouseNativeBlock block = new ClickHouseNativeBlock(columns, TimeZone.getTimeZone("UTC"));
+
+        ClickHouseColumnVector.IntVector a = (ClickHouseColumnVector.IntVector) block.getVector(0);
+        ClickHouseColumnVector.BytesVector b = (ClickHouseColumnVector.BytesVector) block.getVector(1);
+        a.append(1);
+        b.append().writeString("x");
+        block.endRow();
+        a.append(2);
+        block.appendNull(1);
+        block.endRow();
+
+        assertEquals(block.getRows(), 2);
+        assertEquals(block.length(), 8 + 2 + 2 + 1);
+
+        ClickHouseBuffer buffer = block.flush();
+        assertEquals(block.getRows(), 0);
+        assertEquals(block.length(), 0);
+
+        // header
+        assertEquals(buffer.readUnsignedLeb128(), 2);
+        assertEquals(buffer.readUnsignedLeb128(), 2);
+        // column a
+        assertEquals(buffer.readString(), "a");
+        assertEquals(buffer.readString(), "Int32");
+        assertEquals(buffer.readInt32(), 1);
+        assertEquals(buffer.readInt32(), 2);
+        // column b: null map, followed by nested values
+        assertEquals(buffer.readString(), "b");
+        assertEquals(buffer.readString(), "Nullable(String)");
+        assertFalse(buffer.readNull());
+        assertTrue(buffer.readNull());
+        assertEquals(buffer.readString(), "x");
+        assertEquals(buffer.readString(), "");
+        assertTrue(buffer.isExausted());
+    }
+
+    @Test(groups = { "unit" })
+    public void testConstantColumn() {
+        ClickHouseColumnInfo[] columns = new ClickHouseColumnInfo[] {
+                new ClickHouseColumnInfo("datasource", ClickHouseDataType.String, true, 0, 0),
+                new ClickHouseColumnInfo("a", ClickHouseDataType.Int8, false, 0, 0) };
+        ClickHouseNativeBlock block = new ClickHouseNativeBlock(columns, TimeZone.getTimeZone("UTC"));
+
+        // more rows than one word of null bitmap
+        int rows = 100;
+        for (int i = 0; i < rows; i++) {
+            block.writeValue(0, "ds");
+            ((ClickHouseColumnVector.IntVector) block.getVector(1)).append(i);
+            block.endRow();
+        }
+        assertEquals(block.length(), rows * (1 + 3) + rows);
+
+        ClickHouseBuffer buffer = block.flush();
+        assertEquals(buffer.readUnsignedLeb128(), 2);
+        assertEquals(buffer.readUnsignedLeb128(), rows);
+        assertEquals(buffer.readString(), "datasource");
+        assertEquals(buffer.readString(), "Nullable(String)");
+        for (int i = 0; i < rows; i++) {
+            assertFalse(buffer.readNull());
+        }
+        for (int i = 0; i < rows; i++) {
+            assertEquals(buffer.readString(), "ds");
+        }
+        assertEquals(buffer.readString(), "a");
+        assertEquals(buffer.readString(), "Int8");
+        for (int i = 0; i < rows; i++) {
+            assertEquals(buffer.readInt8(), i);
+        }
+        assertTrue(buffer.isExausted());
+    }
+}
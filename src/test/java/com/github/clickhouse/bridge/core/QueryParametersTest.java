@@ -41,5 +41,15 @@ public class QueryParametersTest {
         params.merge("ds?" + QueryParameters.PARAM_DATASOURCE_COLUMN + "&" + QueryParameters.PARAM_DEBUG);
         assertEquals(params.showDatasourceColumn(), true);
         assertEquals(params.isDebug(), true);
+
+        assertEquals(params.getWriteThreads(), QueryParameters.DEFAULT_WRITE_THREADS);
+        params.merge("ds?" + QueryParameters.PARAM_WRITE_THREADS + "=2");
+        assertEquals(params.getWriteThreads(), 2);
+
+        assertEquals(params.getPartitionColumn(), "");
+        assertEquals(params.getPartitions(), QueryParameters.DEFAULT_PARTITIONS);
+        params.merge("ds?" + QueryParameters.PARAM_PARTITION_COLUMN + "=id&" + QueryParameters.PARAM_PARTITIONS + "=8");
+        assertEquals(params.getPartitionColumn(), "id");
+        assertEquals(params.getPartitions(), 8);
     }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.jdbc;
+
+import static org.testng.Assert.*;
+
+import com.github.clickhouse.bridge.jdbc.ClickHouseJdbcDialect.MySqlDialect;
+import com.github.clickhouse.bridge.jdbc.ClickHouseJdbcDialect.Paging;
+
+import org.testng.annotations.Test;
+
+import io.vertx.core.json.JsonObject;
+
+public class ClickHouseJdbcDialectTest {
+    @Test(groups = { "unit" })
+    public void testOf() {
+        assertEquals(ClickHouseJdbcDialect.of(null), ClickHouseJdbcDialect.DEFAULT);
+        assertEquals(ClickHouseJdbcDialect.of(""), ClickHouseJdbcDialect.DEFAULT);
+        assertEquals(ClickHouseJdbcDialect.of("jdbc:unknown://localhost/db"), ClickHouseJdbcDialect.DEFAULT);
+        assertEquals(ClickHouseJdbcDialect.of("jdbc:postgresql://localhost/db").getPaging(), Paging.LIMIT_OFFSET);
+        assertEquals(ClickHouseJdbcDialect.of("JDBC:MySQL://localhost/db").getPaging(), Paging.LIMIT_OFFSET);
+        assertEquals(ClickHouseJdbcDialect.of("jdbc:derby:memory:db").getPaging(), Paging.OFFSET_FETCH);
+
+        // detect by product name when url is unknown
+        assertEquals(ClickHouseJdbcDialect.of("jdbc:p6spy:postgresql://localhost/db", "PostgreSQL"),
+                ClickHouseJdbcDialect.get("postgresql"));
+        assertEquals(ClickHouseJdbcDialect.of("jdbc:p6spy:derby:memory:db", "Apache Derby"),
+                ClickHouseJdbcDialect.get("derby"));
+        assertEquals(ClickHouseJdbcDialect.of(null, "Unknown Database"), ClickHouseJdbcDialect.DEFAULT);
+    }
+
+    @Test(groups = { "unit" })
+    public void testRegister() {
+        assertNull(ClickHouseJdbcDialect.get("my-test-db"));
+
+        ClickHouseJdbcDialect dialect = new ClickHouseJdbcDialect("my-test", Paging.OFFSET_FETCH);
+        ClickHouseJdbcDialect.register("My-Test-DB", dialect);
+        assertEquals(ClickHouseJdbcDialect.get("my-test-db"), dialect);
+        assertEquals(ClickHouseJdbcDialect.of("jdbc:my-test-db://localhost/db"), dialect);
+
+        ClickHouseJdbcDialect.registerTypes(new JsonObject().put("my-mysql", MySqlDialect.class.getName())
+                .put("my-unknown", "com.example.UnknownDialect"));
+        assertTrue(ClickHouseJdbcDialect.get("my-mysql") instanceof MySqlDialect);
+        assertNull(ClickHouseJdbcDialect.get("my-unknown"));
+    }
+
+    @Test(groups = { "unit" })
+    public void testLimit() {
+        ClickHouseJdbcDialect limitOffset = ClickHouseJdbcDialect.of("jdbc:mysql://localhost/db");
+        ClickHouseJdbcDialect offsetFetch = ClickHouseJdbcDialect.of("jdbc:db2://localhost/db");
+        String query = "select * from t1 order by a";
+
+        assertNull(ClickHouseJdbcDialect.DEFAULT.limit(query, 10, 5));
+        assertNull(limitOffset.limit(query, 0, 0));
+        assertNull(limitOffset.limit("show tables", 10, 5));
+        assertNull(limitOffset.limit("select 1; select 2", 10, 5));
+
+        assertEquals(limitOffset.limit(query, 10, 5), "SELECT * FROM (\n" + query + "\n) t LIMIT 5 OFFSET 10");
+        assertEquals(limitOffset.limit(" " + query, 0, 5), "SELECT * FROM (\n" + query + "\n) t LIMIT 5");
+        assertEquals(limitOffset.limit(query, 10, 0),
+                "SELECT * FROM (\n" + query + "\n) t LIMIT " + Long.MAX_VALUE + " OFFSET 10");
+
+        assertEquals(offsetFetch.limit(query, 10, 5),
+                "SELECT * FROM (\n" + query + "\n) t OFFSET 10 ROWS FETCH FIRST 5 ROWS ONLY");
+        assertEquals(offsetFetch.limit(query, 10, 0), "SELECT * FROM (\n" + query + "\n) t OFFSET 10 ROWS");
+    }
+}
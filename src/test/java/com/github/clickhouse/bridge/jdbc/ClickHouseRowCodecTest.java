@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2019-2020, Zhichun Wu
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.github.clickhouse.bridge.jdbc;
+
+import static org.testng.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+
+import com.github.clickhouse.bridge.core.ClickHouseBuffer;
+import com.github.clickhouse.bridge.core.ClickHouseColumnInfo;
+import com.github.clickhouse.bridge.core.ClickHouseDataType;
+
+import org.testng.annotations.Test;
+
+import io.vertx.core.buffer.Buffer;
+
+public class ClickHouseRowCodecTest {
+    // records setter calls, for example "setString(1, 123)"
+    private static PreparedStatement newStatement(List<String> calls) {
+        return (PreparedStatement) Proxy.newProxyInstance(ClickHouseRowCodecTest.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                    calls.add(method.getName() + "(" + args[0] + ", " + args[1] + ")");
+                    return null;
+                });
+    }
+
+    @Test(groups = { "unit" })
+    public void testBindDecodedRow() throws SQLException {
+        TimeZone tz = TimeZone.getTimeZone("UTC");
+        ClickHouseColumnInfo[] columns = new ClickHouseColumnInfo[] {
+                new ClickHouseColumnInfo("a", ClickHouseDataType.UInt64, false, 0, 0),
+                new ClickHouseColumnInfo("b", ClickHouseDataType.DateTime, false, 0, 0),
+                new ClickHouseColumnInfo("c", ClickHouseDataType.Decimal, false, 10, 2),
+                new ClickHouseColumnInfo("d", ClickHouseDataType.String, true, 0, 0) };
+        ClickHouseRowCodec codec = ClickHouseRowCodec.forMutation(columns);
+
+        Buffer encoded = ClickHouseBuffer.newInstance(64, tz).writeInt64(-1L)
+                .writeDateTime(new Timestamp(1000000L), tz).writeDecimal(new BigDecimal("1.23"), 10, 2).writeNull()
+                .unwrap();
+
+        // serial mode binds while decoding, pipelined mode binds decoded rows later
+        List<String> serial = new ArrayList<>();
+        codec.bind(newStatement(serial), ClickHouseBuffer.wrap(encoded, tz));
+        List<String> pipelined = new ArrayList<>();
+        codec.bind(newStatement(pipelined), codec.decode(ClickHouseBuffer.wrap(encoded, tz)));
+
+        assertEquals(serial.size(), columns.length);
+        assertEquals(pipelined, serial);
+        assertEquals(serial.get(0), "setString(1, 18446744073709551615)");
+        assertEquals(serial.get(3), "setString(4, null)");
+    }
+}